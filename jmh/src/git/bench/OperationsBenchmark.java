@@ -0,0 +1,188 @@
+package git.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import git.tools.BlameLine;
+import git.tools.CommitMessage;
+import git.tools.FileState;
+import git.tools.GitRepository;
+import git.tools.GitRepositoryImpl;
+import git.tools.LogQuery;
+import git.tools.Status;
+
+/**
+ * Benchmarks of the repository operations on synthetic repositories, for
+ * every combination of the parameters. The repository works on the current
+ * directory, so the benchmarks have to be started in an empty one, which
+ * every trial fills and empties again:
+ *
+ * <pre>
+ * mvn -B package
+ * mkdir bench && cd bench && java -jar ../jmh/target/benchmarks.jar -p files=1000,10000 -p history=50
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+public class OperationsBenchmark {
+	private static final long SEED = 42;
+	private static final int PAGE_SIZE = 20;
+
+	@State(Scope.Benchmark)
+	public static class Repository {
+		@Param("1000")
+		public int files;
+		@Param("2048")
+		public int fileSize;
+		@Param("20")
+		public int history;
+		@Param("2")
+		public int branches;
+		@Param("5")
+		public int ignoreRules;
+
+		SyntheticRepository synthetic;
+		GitRepositoryImpl git;
+
+		@Setup(Level.Trial)
+		public void create() throws IOException {
+			try (Stream<Path> entries = Files.list(Path.of(GitRepository.REPOSITORY))) {
+				if (entries.findAny().isPresent()) {
+					throw new IllegalStateException("The benchmarks fill the current directory with a repository, "
+							+ "start them in an empty one.");
+				}
+			}
+			synthetic = new SyntheticRepository(files, fileSize, SEED);
+			git = synthetic.create(history, branches, ignoreRules);
+		}
+
+		@TearDown(Level.Trial)
+		public void delete() throws IOException {
+			SyntheticRepository.delete();
+		}
+	}
+
+	/**
+	 * Rewrites the share of files a typical commit changes before every call.
+	 */
+	@State(Scope.Thread)
+	public static class ChangedFiles {
+		@Setup(Level.Invocation)
+		public void change(Repository repository) throws IOException {
+			repository.synthetic.changeFiles();
+		}
+	}
+
+	/**
+	 * Commits a new version of the first file before every call, so blame
+	 * annotates it from the result cached for its parent.
+	 */
+	@State(Scope.Thread)
+	public static class NewFileVersion {
+		@Setup(Level.Invocation)
+		public void commit(Repository repository) throws IOException {
+			repository.synthetic.changeFile(0);
+			repository.git.commit("benchmark");
+		}
+	}
+
+	/**
+	 * Commits changed files before every call, so save() has new objects to
+	 * write.
+	 */
+	@State(Scope.Thread)
+	public static class CommittedChanges {
+		@Setup(Level.Invocation)
+		public void commit(Repository repository) throws IOException {
+			repository.synthetic.changeFiles();
+			repository.git.commit("benchmark");
+		}
+	}
+
+	/**
+	 * Alternates the target of switchTo between the main branch and the first
+	 * side branch, committing first whatever is left changed.
+	 */
+	@State(Scope.Thread)
+	public static class SwitchTarget {
+		private boolean onBranch;
+		String target;
+
+		@Setup(Level.Trial)
+		public void check(Repository repository) {
+			if (!repository.git.branches().contains(SyntheticRepository.BRANCH_PREFIX + 0)) {
+				throw new IllegalArgumentException("switchTo needs at least one branch");
+			}
+		}
+
+		@Setup(Level.Invocation)
+		public void next(Repository repository) {
+			if (repository.git.info().stream().anyMatch(file -> file.status() != Status.COMMITTED)) {
+				repository.git.commit("benchmark");
+			}
+			onBranch = !onBranch;
+			target = onBranch ? SyntheticRepository.BRANCH_PREFIX + 0 : SyntheticRepository.MAIN_BRANCH;
+		}
+	}
+
+	@Benchmark
+	public GitRepositoryImpl init(Repository repository) {
+		return GitRepositoryImpl.init();
+	}
+
+	@Benchmark
+	public List<FileState> info(Repository repository, ChangedFiles changed) {
+		return repository.git.info();
+	}
+
+	@Benchmark
+	public String commit(Repository repository, ChangedFiles changed) {
+		return repository.git.commit("benchmark");
+	}
+
+	@Benchmark
+	public void save(Repository repository, CommittedChanges committed) {
+		repository.git.save();
+	}
+
+	@Benchmark
+	public String switchTo(Repository repository, SwitchTarget target) {
+		return repository.git.switchTo(target.target);
+	}
+
+	@Benchmark
+	public List<CommitMessage> log(Repository repository) {
+		return repository.git.log();
+	}
+
+	@Benchmark
+	public List<CommitMessage> logPage(Repository repository) {
+		return repository.git.log(LogQuery.ALL.limit(PAGE_SIZE)).toList();
+	}
+
+	@Benchmark
+	public List<BlameLine> blame(Repository repository, NewFileVersion version) {
+		return repository.git.blame(repository.synthetic.path(0).toString(), null);
+	}
+}
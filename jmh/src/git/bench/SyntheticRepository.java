@@ -0,0 +1,145 @@
+package git.bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import git.tools.GitRepository;
+import git.tools.GitRepositoryImpl;
+
+/**
+ * Generates a repository in the current directory: files spread over
+ * directories of at most DIRECTORY_SIZE files, a history of commits each
+ * changing a small share of the files, side branches and ignored files
+ * matched by the ignore rules. The same parameters and seed always produce
+ * the same content.
+ */
+public class SyntheticRepository {
+	public static final String MAIN_BRANCH = "master";
+	public static final String BRANCH_PREFIX = "branch-";
+	private static final int DIRECTORY_SIZE = 100;
+	private static final int LINE_LENGTH = 60;
+	private static final double CHANGED_SHARE = 0.01;
+	private static final int BRANCH_COMMITS = 2;
+	private static final String IGNORED_DIRECTORY = "build";
+
+	private final int files;
+	private final int fileSize;
+	private final long seed;
+	private final Random random;
+	private final List<Path> paths = new ArrayList<>();
+	private int version;
+
+	public SyntheticRepository(int files, int fileSize, long seed) {
+		this.files = files;
+		this.fileSize = fileSize;
+		this.seed = seed;
+		this.random = new Random(seed);
+		for (int i = 0; i < files; i++) {
+			paths.add(Path.of("src", "d" + i / DIRECTORY_SIZE / DIRECTORY_SIZE, "d" + i / DIRECTORY_SIZE,
+					"file" + i + ".txt"));
+		}
+	}
+
+	/**
+	 * Writes the files and commits them history times, adds the ignore rules
+	 * with files they match and commits branches side branches.
+	 */
+	public GitRepositoryImpl create(int history, int branches, int ignoreRules) throws IOException {
+		GitRepositoryImpl git = GitRepositoryImpl.init();
+		git.addIgnoredFileNameExp("\\..+");
+		git.addIgnoredFileNameExp("glob:" + IGNORED_DIRECTORY + "/");
+		Files.createDirectories(Path.of(IGNORED_DIRECTORY));
+		for (int i = 0; i < ignoreRules; i++) {
+			git.addIgnoredFileNameExp("glob:*.tmp" + i);
+			Files.writeString(Path.of("ignored.tmp" + i), "ignored");
+			Files.writeString(Path.of(IGNORED_DIRECTORY, "output" + i), "ignored");
+		}
+		for (int i = 0; i < files; i++) {
+			Files.createDirectories(paths.get(i).getParent());
+			Files.write(paths.get(i), content(i));
+		}
+		git.commit("initial");
+		for (int i = 1; i < history; i++) {
+			changeFiles();
+			git.commit("commit " + i);
+		}
+		for (int b = 0; b < branches; b++) {
+			git.createBranch(BRANCH_PREFIX + b);
+			for (int i = 0; i < BRANCH_COMMITS; i++) {
+				changeFiles();
+				git.commit("branch " + b + " commit " + i);
+			}
+			git.switchTo(MAIN_BRANCH);
+		}
+		git.save();
+		return git;
+	}
+
+	/**
+	 * Rewrites the share of files a typical commit changes, at least one.
+	 */
+	public void changeFiles() throws IOException {
+		int count = Math.max(1, (int) (files * CHANGED_SHARE));
+		for (int i = 0; i < count; i++) {
+			int file = random.nextInt(files);
+			Files.write(paths.get(file), content(file));
+		}
+	}
+
+	public void changeFile(int file) throws IOException {
+		Files.write(paths.get(file), content(file));
+	}
+
+	public Path path(int file) {
+		return paths.get(file);
+	}
+
+	/**
+	 * Deletes the repository together with everything else in the current
+	 * directory.
+	 */
+	public static void delete() throws IOException {
+		try (Stream<Path> entries = Files.list(Path.of(GitRepository.REPOSITORY))) {
+			for (Path entry : entries.toList()) {
+				Files.walkFileTree(entry, new SimpleFileVisitor<>() {
+					@Override
+					public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+						Files.delete(file);
+						return FileVisitResult.CONTINUE;
+					}
+
+					@Override
+					public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+						Files.delete(dir);
+						return FileVisitResult.CONTINUE;
+					}
+				});
+			}
+		}
+	}
+
+	/**
+	 * Versions of a file differ in the first line only, as small edits do.
+	 */
+	private byte[] content(int file) {
+		Random lines = new Random(seed + file);
+		StringBuilder builder = new StringBuilder(fileSize + LINE_LENGTH);
+		builder.append("version ").append(version++).append('\n');
+		while (builder.length() < fileSize) {
+			for (int i = 0; i < LINE_LENGTH; i++) {
+				builder.append((char) ('a' + lines.nextInt(26)));
+			}
+			builder.append('\n');
+		}
+		return builder.toString().getBytes(StandardCharsets.UTF_8);
+	}
+}
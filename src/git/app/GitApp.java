@@ -1,20 +1,84 @@
 package git.app;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import git.tools.ConcurrentGitRepository;
 import git.tools.GitRepository;
 import git.tools.GitRepositoryImpl;
+import git.tools.InstrumentedGitRepository;
+import git.tools.RepositoryMetrics;
+import git.view.GitBatch;
 import git.view.GitController;
+import git.view.GitServer;
 import git.view.InputOutput;
 import git.view.Menu;
 import git.view.StandardInputOutput;
 
 public class GitApp {
+	private static final String WATCH_OPTION = "--watch";
+	private static final String NO_METRICS_OPTION = "--no-metrics";
+	private static final String SERVER_OPTION = "--server=";
+	private static final String BATCH_OPTION = "--batch=";
+	private static final String EXEC_OPTION = "--exec";
+	private static final String STANDARD_INPUT = "-";
 
 	public static void main(String[] args) {
 		GitRepositoryImpl git = GitRepositoryImpl.init();
-		GitController controller = new GitController(git);
+		if (Arrays.asList(args).contains(WATCH_OPTION)) {
+			git.setWatchMode(true);
+		}
+		RepositoryMetrics metrics = new RepositoryMetrics(!Arrays.asList(args).contains(NO_METRICS_OPTION));
+		metrics.register();
+		git.setMetrics(metrics);
+		String server = option(args, SERVER_OPTION);
+		if (server != null) {
+			serve(git, metrics, Integer.parseInt(server));
+			return;
+		}
+		int exec = Arrays.asList(args).indexOf(EXEC_OPTION);
+		String batch = option(args, BATCH_OPTION);
+		if (exec >= 0 || batch != null) {
+			GitBatch runner = new GitBatch(new InstrumentedGitRepository(git, metrics), System.out);
+			boolean succeeded = exec >= 0 ? runner.run(Arrays.copyOfRange(args, exec + 1, args.length))
+					: runBatch(runner, batch);
+			System.exit(succeeded ? 0 : 1);
+		}
+		GitController controller = new GitController(new InstrumentedGitRepository(git, metrics), metrics);
 		Menu menu = controller.getMenu();
 		InputOutput io = new StandardInputOutput();
 		menu.perform(io);
 		git.commitsSet().forEach(System.out::println);
 	}
+
+	private static String option(String[] args, String prefix) {
+		return Arrays.stream(args).filter(arg -> arg.startsWith(prefix)).map(arg -> arg.substring(prefix.length()))
+				.findFirst().orElse(null);
+	}
+
+	private static boolean runBatch(GitBatch runner, String file) {
+		try (BufferedReader script = file.equals(STANDARD_INPUT) ? new BufferedReader(new InputStreamReader(System.in))
+				: Files.newBufferedReader(Path.of(file))) {
+			return runner.run(script);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static void serve(GitRepositoryImpl git, RepositoryMetrics metrics, int port) {
+		GitRepository shared = new InstrumentedGitRepository(new ConcurrentGitRepository(git), metrics);
+		GitController controller = new GitController(shared, metrics);
+		try (GitServer server = new GitServer(port, controller.getCommands())) {
+			Runtime.getRuntime().addShutdownHook(new Thread(shared::save));
+			System.out.println("Listening on port " + server.getPort());
+			server.serve();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
 }
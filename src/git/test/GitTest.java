@@ -3,12 +3,19 @@ package git.test;
 import static org.junit.jupiter.api.Assertions.*;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.stream.Stream;
 
 import org.junit.jupiter.api.*;
 
 import git.tools.*;
+import git.view.GitBatch;
 
 @TestMethodOrder(MethodOrderer.OrderAnnotation.class)
 class GitTest {
@@ -21,8 +28,15 @@ class GitTest {
 	static String[] notIgnoredFiles = { "passwords", "textFile", "deleteAfterFirstCommit" };
 	static Set<String> notIgnoredFilesSet = new HashSet<>(Arrays.asList(notIgnoredFiles));
 	static String newFile = "newFile";
+	static String binaryFile = "zeros.bin";
+	static String nestedDirectory = "nested";
+	static String batchFile = "batchFile";
+	static String storeLog = ".objects";
+	static String storeIndex = ".objects.idx";
 	static String[] filesToDelete = { "ignoredFile", "passwords", "textFile", "4chan", GitRepository.GIT_FILE,
-			newFile, };
+			GitRepository.REFS_FILE, GitRepository.INDEX_FILE,
+			GitRepository.STAT_FILE, GitRepository.GRAPH_FILE, GitRepository.GIT_FILE + ".1",
+			GitRepository.INDEX_FILE + ".1", GitRepository.GRAPH_FILE + ".1", GitRepository.MERGE_FILE, storeLog, storeIndex, newFile, binaryFile, batchFile, };
 	static String[][] fileContents = { { "Java is beautiful", "C++ is fast" }, { "qwerty", "password123", "88888888" },
 			{ "The Scanner class is used to get user input, and it is found in the java.util package.",
 					"To use the Scanner class, create an object of the class." },
@@ -56,6 +70,13 @@ class GitTest {
 		for (String file : filesToDelete) {
 			Files.deleteIfExists(Path.of(file));
 		}
+		if (Files.exists(Path.of(nestedDirectory))) {
+			try (Stream<Path> paths = Files.walk(Path.of(nestedDirectory))) {
+				for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+					Files.delete(path);
+				}
+			}
+		}
 	}
 
 	@BeforeEach
@@ -71,21 +92,168 @@ class GitTest {
 	}
 
 	@Test
-	@Disabled
-	void saveRestoreGitTest() {
-		GitRepository git = GitRepositoryImpl.init();
-		assertTrue(git.log().isEmpty());
-
-		git.commit("msg1");
-		git.commit("msg2");
-		git.commit("msg3");
+	@Order(16)
+	void repositoryFilesTest() throws IOException {
+		String branch = git.getHead();
 		git.save();
+		// every other test ignores dot files, the repository's files included
+		GitRepository repository = GitRepositoryImpl.init();
+		assertTrue(repository.deleteIgnoredExp(ignoredExps[0]));
+		assertTrue(repository.info().stream().noneMatch(file -> file.name().startsWith(GitRepository.GIT_FILE)));
+		String before = repository.log().get(0).name();
+		System.out.println(repository.commit("dot files"));
+		repository.save();
+
+		GitRepository reopened = GitRepositoryImpl.init();
+		Files.writeString(Path.of(notIgnoredFiles[0]), "changed with dot files\n", StandardOpenOption.APPEND);
+		System.out.println(reopened.commit("dot files changed"));
+		List<CommitMessage> commits = reopened.log();
+		System.out.println(reopened.switchTo(before));
+		System.out.println(reopened.switchTo(branch));
+		reopened.save();
+		assertTrue(reopened.commitContent(branch).stream()
+				.noneMatch(path -> path.toString().startsWith(GitRepository.GIT_FILE)));
+		assertEquals(commits, GitRepositoryImpl.init().log());
+	}
 
-		assertTrue(Files.exists(Path.of(GitRepository.GIT_FILE)));
+	@Test
+	@Order(17)
+	void nestedDirectoriesTest() throws IOException {
+		GitRepository repository = GitRepositoryImpl.init();
+		String branch = repository.getHead();
+		String before = repository.log().get(0).name();
+		Path nested = Path.of(nestedDirectory, "sub", "nested.txt");
+		Path sibling = Path.of(nestedDirectory, "sibling.txt");
+		Path ignored = Path.of(nestedDirectory, "sub", "build", "output.txt");
+		Files.createDirectories(ignored.getParent());
+		Files.writeString(nested, "nested\n");
+		Files.writeString(sibling, "sibling\n");
+		Files.writeString(ignored, "built\n");
+		repository.addIgnoredFileNameExp("glob:build/");
+
+		List<String> names = repository.info().stream().map(FileState::name).toList();
+		assertTrue(names.containsAll(List.of(nestedDirectory + "/sub/nested.txt", nestedDirectory + "/sibling.txt")));
+		assertFalse(names.contains(nestedDirectory + "/sub/build/output.txt"));
+		System.out.println(repository.commit("nested directories"));
+		assertTrue(repository.commitContent(branch).containsAll(List.of(nested, sibling)));
+		assertFalse(repository.commitContent(branch).contains(ignored));
+
+		// the directories holding an ignored file stay, the emptied ones go
+		System.out.println(repository.switchTo(before));
+		assertFalse(Files.exists(nested));
+		assertFalse(Files.exists(sibling));
+		assertTrue(Files.exists(ignored));
+		Files.delete(ignored);
+		Files.delete(ignored.getParent());
+		System.out.println(repository.switchTo(branch));
+		assertEquals("nested\n", Files.readString(nested));
+		System.out.println(repository.switchTo(before));
+		assertFalse(Files.exists(Path.of(nestedDirectory)));
+		System.out.println(repository.switchTo(branch));
+		assertEquals("nested\n", Files.readString(nested));
+		assertEquals("sibling\n", Files.readString(sibling));
+		assertTrue(repository.info().stream().allMatch(file -> file.status() == Status.COMMITTED));
+		repository.save();
+	}
 
-		GitRepository git2 = GitRepositoryImpl.init();
-		assertFalse(git2.log().isEmpty());
-		assertEquals(git.log(), git2.log());
+	@Test
+	@Order(18)
+	void statCacheTest() throws IOException {
+		GitRepository repository = GitRepositoryImpl.init();
+		Path file = Path.of(notIgnoredFiles[1]);
+		byte[] content = Files.readAllBytes(file);
+		assertEquals(Status.COMMITTED, status(repository, file));
+
+		// touched only: hashed once, then taken from the cache by size and time
+		Files.setLastModifiedTime(file, FileTime.from(Instant.now().minus(1, ChronoUnit.HOURS)));
+		assertEquals(Status.COMMITTED, status(repository, file));
+		assertEquals(Status.COMMITTED, status(repository, file));
+
+		// racily clean: same size and time as an entry taken just after a change
+		FileTime recent = FileTime.from(Instant.now());
+		Files.setLastModifiedTime(file, recent);
+		assertEquals(Status.COMMITTED, status(repository, file));
+		byte[] changed = content.clone();
+		changed[0] = (byte) (changed[0] == 'x' ? 'y' : 'x');
+		Files.write(file, changed);
+		Files.setLastModifiedTime(file, recent);
+		assertEquals(Status.MODIFIED, status(repository, file));
+
+		Files.write(file, content);
+		assertEquals(Status.COMMITTED, status(repository, file));
+	}
+
+	@Test
+	@Order(19)
+	void logQueryTest() {
+		GitRepository repository = GitRepositoryImpl.init();
+		List<CommitMessage> commits = repository.log();
+		assertTrue(commits.size() > 10);
+		int pageSize = 3;
+		List<CommitMessage> pages = new ArrayList<>();
+		for (int skip = 0; skip < commits.size() + pageSize; skip += pageSize) {
+			List<CommitMessage> page = repository.log(LogQuery.ALL.skip(skip).limit(pageSize)).toList();
+			assertTrue(page.size() <= pageSize);
+			pages.addAll(page);
+		}
+		assertEquals(commits, pages);
+		assertTrue(repository.log(LogQuery.ALL.skip(commits.size())).toList().isEmpty());
+		assertTrue(repository.log(LogQuery.ALL.limit(0)).toList().isEmpty());
+
+		List<CommitMessage> merges = commits.stream().filter(commit -> commit.message().startsWith("Merge")).toList();
+		assertFalse(merges.isEmpty());
+		assertEquals(merges, repository.log(LogQuery.ALL.grep("^Merge")).toList());
+		LocalDateTime until = commits.get(2).date();
+		LocalDateTime since = commits.get(commits.size() - 3).date();
+		List<CommitMessage> between = commits.stream()
+				.filter(commit -> commit.date().isBefore(until) && !commit.date().isBefore(since)).toList();
+		assertFalse(between.isEmpty());
+		assertEquals(between, repository.log(LogQuery.ALL.since(since).until(until)).toList());
+		assertEquals(commits.stream().filter(commit -> commit.message().contains("commit")).skip(1).limit(2).toList(),
+				repository.log(LogQuery.ALL.grep("commit").skip(1).limit(2)).toList());
+		assertThrows(IllegalArgumentException.class, () -> LogQuery.ALL.limit(-1));
+	}
+
+	@Test
+	@Order(20)
+	void batchTest() throws IOException {
+		Files.write(Path.of(batchFile), List.of("batch"));
+		List<String> script = List.of("# a comment line", "", "info   # trailing comment",
+				"commit -m \"say \\\"hi\\\" # not a comment\"", "log -n 1", "branch 'batch \\branch'",
+				"switch \"batch \\\\branch\"", "branch batch\\ \\\\branch", "head");
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		GitBatch batch = new GitBatch(GitRepositoryImpl.init(), new PrintStream(output, true));
+		assertFalse(batch.run(new BufferedReader(new StringReader(String.join("\n", script)))));
+		List<String> lines = output.toString().lines().toList();
+		assertEquals(6, lines.size());
+		assertTrue(lines.get(0).startsWith("{\"command\":\"info\",\"status\":\"ok\",\"result\":["));
+		assertTrue(lines.get(1).startsWith("{\"command\":\"commit\",\"status\":\"ok\",\"result\":\"Successfully"));
+		assertTrue(lines.get(2).startsWith("{\"command\":\"log\",\"status\":\"ok\""));
+		assertTrue(lines.get(2).contains("\"message\":\"say \\\"hi\\\" # not a comment\""));
+		assertEquals("{\"command\":\"branch\",\"status\":\"ok\","
+				+ "\"result\":\"Branch \\\"batch \\\\branch\\\" has been created.\"}", lines.get(3));
+		assertTrue(lines.get(4).startsWith("{\"command\":\"switch\",\"status\":\"ok\",\"result\":\"Head's already on"));
+		assertEquals("{\"command\":\"branch\",\"status\":\"error\","
+				+ "\"result\":\"Branch \\\"batch \\\\branch\\\"'s already exists.\"}", lines.get(5));
+
+		output.reset();
+		batch = new GitBatch(GitRepositoryImpl.init(), new PrintStream(output, true));
+		assertFalse(batch.run(new String[] { "head", ";", "merge", "--abort", ";", "switch", "no such branch" }));
+		lines = output.toString().lines().toList();
+		assertEquals(List.of("{\"command\":\"head\",\"status\":\"ok\",\"result\":\"batch \\\\branch\"}",
+				"{\"command\":\"merge\",\"status\":\"error\",\"result\":\"No merge is in progress.\"}"), lines);
+
+		output.reset();
+		assertTrue(batch.run(new String[] { "head", ";", "branches" }));
+		assertEquals(2, output.toString().lines().filter(line -> line.contains("\"status\":\"ok\"")).count());
+		GitBatch unclosed = batch;
+		assertThrows(IllegalArgumentException.class,
+				() -> unclosed.run(new BufferedReader(new StringReader("commit -m \"no end"))));
+	}
+
+	private static Status status(GitRepository repository, Path file) {
+		return repository.info().stream().filter(state -> state.name().equals(file.toString())).findFirst()
+				.orElseThrow().status();
 	}
 
 	@Test
@@ -99,6 +267,18 @@ class GitTest {
 		assertFalse(git.isFileIgnored("text1"));
 	}
 
+	@Test
+	void ignoredGlobsTest() {
+		String glob = "glob:**/build/*.class";
+		git.addIgnoredFileNameExp(glob);
+		assertTrue(git.isFileIgnored("build/Main.class"));
+		assertTrue(git.isFileIgnored("module/build/Main.class"));
+		assertFalse(git.isFileIgnored("Main.class"));
+		assertFalse(git.isFileIgnored("build/Main.java"));
+		assertTrue(git.deleteIgnoredExp(glob));
+		assertFalse(git.isFileIgnored("build/Main.class"));
+	}
+
 	@Test
 	@Order(1)
 	void beforeFirstCommitTest() {
@@ -202,4 +382,242 @@ class GitTest {
 		System.out.println(git.commit("msg"));
 	}
 
+	@Test
+	@Order(6)
+	void abbreviatedCommitNamesTest() {
+		List<CommitMessage> commits = git.log();
+		String lastCommit = commits.get(0).name();
+		assertEquals(40, lastCommit.length());
+		assertTrue(lastCommit.startsWith(commits.get(0).shortName()));
+		assertEquals(git.commitContent("host"), git.commitContent(lastCommit.substring(0, 10)));
+		assertEquals(git.commitContent("host"), git.commitContent(commits.get(0).shortName()));
+		assertTrue(git.commitContent("x").isEmpty());
+		assertTrue(git.commitContent(lastCommit.substring(0, 7) + "0000000000").isEmpty());
+		assertTrue(git.switchTo(lastCommit.substring(0, 7) + "ffffffffff").contains("doesn't exist"));
+		assertThrows(IllegalArgumentException.class, () -> git.commitContent(""));
+	}
+
+	@Test
+	@Order(7)
+	void diffTest() throws IOException {
+		Path file = Path.of(notIgnoredFiles[1]);
+		byte[] content = Files.readAllBytes(file);
+		Files.writeString(file, "added line\n", StandardOpenOption.APPEND);
+		List<FileDiff> diffs = git.diff(git.getHead(), null);
+		diffs.forEach(diff -> diff.patch().forEach(System.out::println));
+		assertEquals(1, diffs.size());
+		assertEquals(notIgnoredFiles[1], diffs.get(0).path());
+		assertEquals(1, diffs.get(0).insertions());
+		assertEquals(0, diffs.get(0).deletions());
+		assertTrue(diffs.get(0).patch().contains("+added line"));
+		Files.write(file, content);
+		assertTrue(git.diff(git.getHead(), null).isEmpty());
+		assertTrue(git.diff(git.getHead(), git.getHead()).isEmpty());
+	}
+
+	@Test
+	@Order(8)
+	void mergeTest() throws IOException {
+		String branch = git.getHead();
+		git.createBranch("toMerge");
+		Files.writeString(Path.of(notIgnoredFiles[0]), "changed on toMerge\n", StandardOpenOption.APPEND);
+		System.out.println(git.commit("toMerge commit"));
+		git.switchTo(branch);
+		Files.writeString(Path.of(notIgnoredFiles[1]), "changed on " + branch + "\n", StandardOpenOption.APPEND);
+		System.out.println(git.commit(branch + " commit"));
+		System.out.println(git.merge("toMerge"));
+		List<CommitMessage> commits = git.log();
+		commits.forEach(System.out::println);
+		assertTrue(commits.get(0).message().startsWith("Merge toMerge"));
+		assertTrue(commits.stream().anyMatch(commit -> commit.message().equals("toMerge commit")));
+		assertTrue(Files.readString(Path.of(notIgnoredFiles[0])).endsWith("changed on toMerge\n"));
+		assertTrue(git.info().stream().allMatch(file -> file.status() == Status.COMMITTED));
+		assertTrue(git.merge("toMerge").contains("already up to date"));
+	}
+
+	@Test
+	@Order(9)
+	void blameTest() throws IOException {
+		Files.writeString(Path.of(notIgnoredFiles[1]), "blamed line\n", StandardOpenOption.APPEND);
+		System.out.println(git.commit("blame commit"));
+		List<CommitMessage> commits = git.log();
+		List<BlameLine> lines = git.blame(notIgnoredFiles[1], null);
+		lines.forEach(System.out::println);
+		assertEquals(Files.readAllLines(Path.of(notIgnoredFiles[1])).size(), lines.size());
+		assertEquals(commits.get(commits.size() - 1).name(), lines.get(0).commit());
+		assertEquals(commits.get(0).name(), lines.get(lines.size() - 1).commit());
+		assertEquals("blamed line", lines.get(lines.size() - 1).text());
+		assertEquals(lines, git.blame(notIgnoredFiles[1], git.getHead()));
+		assertThrows(IllegalArgumentException.class, () -> git.blame(newFile + "x", null));
+	}
+
+	@Test
+	@Order(10)
+	void blobWithTreeBytesTest() throws IOException {
+		// four zero bytes are the serialized empty tree
+		assertNotEquals(Tree.EMPTY.id(), ObjectStore.hash(new byte[4]));
+		String branch = git.getHead();
+		Path file = Path.of(binaryFile);
+		Files.write(file, new byte[4]);
+		System.out.println(git.commit("zeros"));
+		String zeros = git.log().get(0).name();
+		Files.delete(file);
+		System.out.println(git.commit("no zeros"));
+		System.out.println(git.switchTo(zeros));
+		assertArrayEquals(new byte[4], Files.readAllBytes(file));
+		System.out.println(git.switchTo(branch));
+		assertFalse(Files.exists(file));
+	}
+
+	@Test
+	@Order(11)
+	void abortMergeTest() throws IOException {
+		String branch = git.getHead();
+		Path conflicting = Path.of(notIgnoredFiles[0]);
+		String content = Files.readString(conflicting);
+		git.createBranch("conflicting");
+		Files.writeString(conflicting, "theirs\n", StandardOpenOption.APPEND);
+		Files.writeString(Path.of(binaryFile), "added on conflicting\n");
+		System.out.println(git.commit("conflicting commit"));
+		git.switchTo(branch);
+		Files.writeString(conflicting, "ours\n", StandardOpenOption.APPEND);
+		System.out.println(git.commit(branch + " conflicting commit"));
+		String merge = git.merge("conflicting");
+		System.out.println(merge);
+		assertTrue(merge.startsWith("Automatic merge failed"));
+		assertTrue(Files.exists(Path.of(GitRepository.MERGE_FILE)));
+		assertTrue(git.switchTo("conflicting").startsWith("A merge is in progress"));
+		assertTrue(git.createBranch("duringMerge").startsWith("Unable to create branch"));
+		System.out.println(git.abortMerge());
+		assertFalse(Files.exists(Path.of(GitRepository.MERGE_FILE)));
+		assertEquals(content + "ours\n", Files.readString(conflicting));
+		assertFalse(Files.exists(Path.of(binaryFile)));
+		assertEquals(branch, git.getHead());
+		assertTrue(git.info().stream().allMatch(file -> file.status() == Status.COMMITTED));
+		assertEquals("No merge is in progress.", git.abortMerge());
+	}
+
+	@Test
+	@Order(12)
+	void deltaChainTest() throws IOException {
+		int versions = 40; // more than twice the longest delta chain
+		ObjectStore store = new ObjectStore(Path.of(storeLog), Path.of(storeIndex));
+		List<byte[]> contents = new ArrayList<>();
+		List<String> ids = new ArrayList<>();
+		StringBuilder content = new StringBuilder();
+		String base = null;
+		for (int i = 0; i < versions; i++) {
+			content.append("line ").append(i).append(" of a file that grows by a line per version\n");
+			byte[] data = content.toString().getBytes();
+			contents.add(data);
+			base = store.putBlob(data, base);
+			ids.add(base);
+		}
+		store.flush();
+
+		ObjectStore reopened = ObjectStore.open(Path.of(storeLog), Path.of(storeIndex), store.logLength(),
+				store.indexLength());
+		int longestChain = 0;
+		for (int i = 0; i < versions; i++) {
+			assertArrayEquals(contents.get(i), reopened.getBlob(ids.get(i)));
+			int chain = 0;
+			for (String blob = reopened.blobBase(ids.get(i)); blob != null; blob = reopened.blobBase(blob)) {
+				chain++;
+			}
+			longestChain = Math.max(longestChain, chain);
+		}
+		assertNotNull(reopened.blobBase(ids.get(versions - 1)));
+		assertTrue(longestChain > 0 && longestChain < versions / 2);
+	}
+
+	@Test
+	@Order(13)
+	void compressionTest() throws IOException {
+		Files.deleteIfExists(Path.of(storeLog));
+		Files.deleteIfExists(Path.of(storeIndex));
+		byte[] compressed = "a line compressed in the log\n".repeat(200).getBytes();
+		byte[] stored = "a line stored as it is in the log\n".repeat(200).getBytes();
+		ObjectStore store = new ObjectStore(Path.of(storeLog), Path.of(storeIndex));
+		String compressedId = store.putBlob(compressed);
+		store.flush();
+		long compressedLength = store.logLength();
+		store.setCompression(Compression.none());
+		String storedId = store.putBlob(stored);
+		store.flush();
+		assertTrue(compressedLength < compressed.length);
+		assertTrue(store.logLength() - compressedLength >= stored.length);
+
+		ObjectStore reopened = ObjectStore.open(Path.of(storeLog), Path.of(storeIndex), store.logLength(),
+				store.indexLength());
+		assertArrayEquals(compressed, reopened.getBlob(compressedId));
+		assertArrayEquals(stored, reopened.getBlob(storedId));
+		assertEquals(ByteBuffer.wrap(compressed), reopened.getBlobContent(compressedId));
+		assertEquals(ByteBuffer.wrap(stored), reopened.getBlobContent(storedId));
+	}
+
+	@Test
+	@Order(14)
+	void gcTest() throws IOException {
+		String branch = git.getHead();
+		git.createBranch("toCollect");
+		Files.writeString(Path.of(binaryFile), "only on toCollect\n");
+		System.out.println(git.commit("toCollect commit"));
+		String collected = git.log().get(0).name();
+		System.out.println(git.switchTo(branch));
+		System.out.println(git.deleteBranch("toCollect"));
+		List<CommitMessage> commits = git.log();
+		String gc = git.gc();
+		System.out.println(gc);
+		assertTrue(gc.startsWith("Garbage collection removed 1 commits"));
+		assertTrue(git.commitContent(collected).isEmpty());
+		assertEquals(commits, git.log());
+		// the compacted log replaced the old one, which is deleted
+		assertNotEquals(Files.exists(Path.of(GitRepository.GIT_FILE)),
+				Files.exists(Path.of(GitRepository.GIT_FILE + ".1")));
+
+		GitRepository reopened = GitRepositoryImpl.init();
+		assertEquals(commits, reopened.log());
+		assertEquals(git.branches(), reopened.branches());
+		assertTrue(reopened.commitContent(collected).isEmpty());
+		assertEquals(git.commitContent(branch), reopened.commitContent(branch));
+	}
+
+	@Test
+	@Order(15)
+	void saveRestoreGitTest() throws IOException {
+		String branch = git.getHead();
+		Map<String, byte[]> checkedOut = new HashMap<>();
+		for (String file : notIgnoredFiles) {
+			if (Files.exists(Path.of(file))) {
+				checkedOut.put(file, Files.readAllBytes(Path.of(file)));
+			}
+		}
+		git.save();
+		assertTrue(Files.exists(Path.of(GitRepository.REFS_FILE)));
+
+		GitRepository git2 = GitRepositoryImpl.init();
+		List<CommitMessage> commits = git.log();
+		assertFalse(git2.log().isEmpty());
+		assertEquals(commits, git2.log());
+		assertEquals(git.branches(), git2.branches());
+		assertEquals(branch, git2.getHead());
+		for (CommitMessage commit : commits) {
+			assertEquals(git.commitContent(commit.name()), git2.commitContent(commit.name()));
+		}
+		String firstCommit = commits.get(commits.size() - 1).name();
+		assertEquals(git.diff(firstCommit, branch), git2.diff(firstCommit, branch));
+
+		System.out.println(git2.switchTo(firstCommit));
+		assertTrue(git2.info().stream().allMatch(file -> file.status() == Status.COMMITTED));
+		System.out.println(git2.switchTo(branch));
+		checkedOut.forEach((file, bytes) -> {
+			try {
+				assertArrayEquals(bytes, Files.readAllBytes(Path.of(file)));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+		assertTrue(git2.info().stream().allMatch(file -> file.status() == Status.COMMITTED));
+	}
+
 }
@@ -0,0 +1,159 @@
+package git.tools;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Line annotations of files: for every line of a file at a commit, the
+ * commit that last changed it. A commit inherits the annotation of a parent
+ * with the same version of the file as is. Otherwise the file is diffed
+ * against every parent having it, lines left unchanged keep the commit of
+ * the parent (the first parent wins), and the other lines are the commit's
+ * own.
+ * <p>
+ * History is walked with an explicit stack and stops at annotations found
+ * in a bounded cache of recent results, so annotating a file again after a
+ * few new commits diffs only the versions those commits added.
+ */
+class Blame {
+	private static final int CACHE_SIZE = 256;
+
+	private final Function<String, Commit> commits;
+	private final BiFunction<Commit, String, String> files;
+	private final Function<String, byte[]> blobs;
+	private final Map<Key, Annotation> cache = ObjectStore.lruCache(CACHE_SIZE);
+
+	/**
+	 * The blob of a file version and the names of the commits its lines come
+	 * from. Annotations are shared between commits and never modified.
+	 */
+	record Annotation(String blob, String[] origins) {
+	}
+
+	private record Key(String path, String commit) {
+	}
+
+	/**
+	 * Takes the commit of a name, the blob id of a path in a commit (null if
+	 * there is no such file) and the content of a blob.
+	 */
+	Blame(Function<String, Commit> commits, BiFunction<Commit, String, String> files,
+			Function<String, byte[]> blobs) {
+		this.commits = commits;
+		this.files = files;
+		this.blobs = blobs;
+	}
+
+	/**
+	 * Returns the annotation of the file at the path in the commit, or null if
+	 * the commit has no such file.
+	 */
+	Annotation annotate(String path, String commitName) {
+		Annotation cached = cache.get(new Key(path, commitName));
+		if (cached != null) {
+			return cached;
+		}
+		HashMap<String, String> fileBlobs = new HashMap<>();
+		HashMap<String, Annotation> annotated = new HashMap<>();
+		ArrayDeque<String> stack = new ArrayDeque<>();
+		stack.push(commitName);
+		while (!stack.isEmpty()) {
+			String name = stack.peek();
+			if (annotated.containsKey(name)) {
+				stack.pop();
+				continue;
+			}
+			String blob = fileBlob(fileBlobs, path, name);
+			Annotation annotation = blob != null ? cache.get(new Key(path, name)) : null;
+			if (blob != null && annotation == null) {
+				List<String> sources = sources(fileBlobs, path, name, blob);
+				List<String> missing = sources.stream().filter(source -> !annotated.containsKey(source)).toList();
+				if (!missing.isEmpty()) {
+					missing.forEach(stack::push);
+					continue;
+				}
+				annotation = annotate(name, blob, sources, annotated);
+			}
+			annotated.put(name, annotation);
+			stack.pop();
+		}
+		Annotation annotation = annotated.get(commitName);
+		if (annotation != null) {
+			cache.put(new Key(path, commitName), annotation);
+		}
+		return annotation;
+	}
+
+	void clear() {
+		cache.clear();
+	}
+
+	private String fileBlob(HashMap<String, String> fileBlobs, String path, String commitName) {
+		if (!fileBlobs.containsKey(commitName)) {
+			Commit commit = commits.apply(commitName);
+			fileBlobs.put(commitName, commit != null ? files.apply(commit, path) : null);
+		}
+		return fileBlobs.get(commitName);
+	}
+
+	/**
+	 * Returns the parents the lines of the version may come from: a parent
+	 * with the same version alone, otherwise all parents having the file.
+	 */
+	private List<String> sources(HashMap<String, String> fileBlobs, String path, String commitName, String blob) {
+		List<String> sources = new ArrayList<>();
+		for (String parent : commits.apply(commitName).getParents()) {
+			String parentBlob = fileBlob(fileBlobs, path, parent);
+			if (blob.equals(parentBlob)) {
+				return List.of(parent);
+			}
+			if (parentBlob != null) {
+				sources.add(parent);
+			}
+		}
+		return sources;
+	}
+
+	private Annotation annotate(String commitName, String blob, List<String> sources,
+			HashMap<String, Annotation> annotated) {
+		if (sources.size() == 1 && annotated.get(sources.get(0)).blob().equals(blob)) {
+			return annotated.get(sources.get(0));
+		}
+		byte[] data = blobs.apply(blob);
+		String[] origins = new String[LineDelta.lineBounds(data).length - 1];
+		for (String source : sources) {
+			Annotation parent = annotated.get(source);
+			int oldLine = 0;
+			int newLine = 0;
+			for (LineDiff.Edit edit : LineDiff.of(blobs.apply(parent.blob()), data).edits()) {
+				inherit(origins, newLine, edit.newStart(), parent.origins(), oldLine);
+				oldLine = edit.oldEnd();
+				newLine = edit.newEnd();
+			}
+			inherit(origins, newLine, origins.length, parent.origins(), oldLine);
+		}
+		for (int line = 0; line < origins.length; line++) {
+			if (origins[line] == null) {
+				origins[line] = commitName;
+			}
+		}
+		return new Annotation(blob, origins);
+	}
+
+	/**
+	 * Gives the lines [from, to) the origins of the unchanged parent lines
+	 * starting at parentLine, unless an earlier parent already did.
+	 */
+	private static void inherit(String[] origins, int from, int to, String[] parentOrigins, int parentLine) {
+		for (int line = from; line < to; line++, parentLine++) {
+			if (origins[line] == null) {
+				origins[line] = parentOrigins[parentLine];
+			}
+		}
+	}
+}
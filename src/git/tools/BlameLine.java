@@ -0,0 +1,19 @@
+package git.tools;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * A line of a file with the commit that last changed it.
+ */
+public record BlameLine(int number, String commit, String shortName, LocalDateTime date, String text)
+		implements Serializable {
+	private static final long serialVersionUID = 1L;
+	private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm:ss");
+
+	@Override
+	public String toString() {
+		return String.format("%s (%s %4d) %s", shortName, date.format(formatter), number, text);
+	}
+}
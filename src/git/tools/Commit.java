@@ -1,10 +1,22 @@
 package git.tools;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
 import java.io.Serializable;
 import java.time.LocalDateTime;
-import java.util.Date;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 
+import static git.utills.ByteUtills.*;
+
+/**
+ * A commit has its previous commit as the first parent and, if it is a
+ * merge, the merged commits as further parents. These are stored after the
+ * fields a commit with one parent ends with, so single parent commits keep
+ * their format.
+ */
 public class Commit implements Serializable {
 
 	private static final long serialVersionUID = 4863127995743013980L;
@@ -12,14 +24,26 @@ public class Commit implements Serializable {
 	private final String name;
 	private final String message;
 	private final String prevCommit;
-	private final Map<String, File> files;
-	private final LocalDateTime date = LocalDateTime.now();
+	private final List<String> mergedCommits;
+	private final String tree;
+	private final LocalDateTime date;
+
+	public Commit(String name, String message, String prevCommit, String tree) {
+		this(name, message, prevCommit, tree, LocalDateTime.now());
+	}
 
-	public Commit(String name, String message, String prevCommit, Map<String, File> files) {
+	public Commit(String name, String message, String prevCommit, String tree, LocalDateTime date) {
+		this(name, message, prevCommit, List.of(), tree, date);
+	}
+
+	public Commit(String name, String message, String prevCommit, List<String> mergedCommits, String tree,
+			LocalDateTime date) {
 		this.name = name;
 		this.message = message;
 		this.prevCommit = prevCommit;
-		this.files = files;
+		this.mergedCommits = List.copyOf(mergedCommits);
+		this.tree = tree;
+		this.date = date;
 	}
 
 	public String getName() {
@@ -34,11 +58,60 @@ public class Commit implements Serializable {
 		return prevCommit;
 	}
 
-	public Map<String, File> getFiles() {
-		return files;
+	/**
+	 * Returns the previous commit followed by the merged ones.
+	 */
+	public List<String> getParents() {
+		List<String> parents = new ArrayList<>();
+		if (prevCommit != null) {
+			parents.add(prevCommit);
+		}
+		parents.addAll(mergedCommits);
+		return parents;
+	}
+
+	public List<String> getMergedCommits() {
+		return mergedCommits;
+	}
+
+	public String getTree() {
+		return tree;
 	}
 
 	public LocalDateTime getDate() {
 		return date;
 	}
+
+	public void writeTo(DataOutput output) throws IOException {
+		writeString(output, name);
+		writeString(output, message);
+		writeString(output, prevCommit);
+		writeString(output, date.toString());
+		writeString(output, tree);
+		if (!mergedCommits.isEmpty()) {
+			output.writeInt(mergedCommits.size());
+			for (String merged : mergedCommits) {
+				writeString(output, merged);
+			}
+		}
+	}
+
+	public static Commit readFrom(DataInput input) throws IOException {
+		String name = readString(input);
+		String message = readString(input);
+		String prevCommit = readString(input);
+		LocalDateTime date = LocalDateTime.parse(readString(input));
+		String tree = readString(input);
+		List<String> mergedCommits = new ArrayList<>();
+		int count;
+		try {
+			count = input.readInt();
+		} catch (EOFException e) {
+			count = 0;
+		}
+		for (int i = 0; i < count; i++) {
+			mergedCommits.add(readString(input));
+		}
+		return new Commit(name, message, prevCommit, mergedCommits, tree, date);
+	}
 }
@@ -0,0 +1,364 @@
+package git.tools;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Function;
+
+import static git.utills.ByteUtills.*;
+
+/**
+ * Commit graph index: commits get dense integer ids with parent arrays and
+ * generation numbers (1 for a root commit, otherwise one more than the
+ * largest parent generation), so history walks and reachability queries work
+ * on ints instead of looking commits up by name. Reachability sets of
+ * recently queried tips are cached as bitmaps; the set of a new commit is
+ * derived from the cached set of its parent.
+ * <p>
+ * The graph is persisted in its own file and treated as a cache: a commit
+ * missing from it is added on first use through the parents loader. All
+ * methods are synchronized, since even lookups may add commits or cache
+ * reachability sets.
+ */
+public class CommitGraph {
+	private static final int[] NO_PARENTS = {};
+	private static final int REACHABILITY_CACHE_SIZE = 64;
+	private static final String TMP_SUFFIX = ".tmp";
+	private static final int FIRST_SIDE = 1;
+	private static final int SECOND_SIDE = 2;
+	private static final int BOTH_SIDES = FIRST_SIDE | SECOND_SIDE;
+
+	private Path file;
+	private final Function<String, List<String>> parentsLoader;
+	private boolean loaded;
+	private boolean changed;
+
+	private final HashMap<String, Integer> ids = new HashMap<>();
+	private final ArrayList<String> names = new ArrayList<>();
+	private int[][] parents = new int[16][];
+	private int[] generations = new int[16];
+	private final Map<Integer, BitSet> reachability = new LinkedHashMap<>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, BitSet> eldest) {
+			return size() > REACHABILITY_CACHE_SIZE;
+		}
+	};
+
+	/**
+	 * @param parentsLoader returns the parent names of a stored commit, or null
+	 *                      if there is no such commit
+	 */
+	public CommitGraph(Path file, Function<String, List<String>> parentsLoader) {
+		this.file = file;
+		this.parentsLoader = parentsLoader;
+	}
+
+	public synchronized int size() {
+		load();
+		return names.size();
+	}
+
+	/**
+	 * Returns the id of the commit, or -1 if there is no such commit.
+	 */
+	public synchronized int id(String name) {
+		load();
+		if (name == null) {
+			return -1;
+		}
+		Integer id = ids.get(name);
+		if (id == null) {
+			resolve(name);
+			id = ids.get(name);
+		}
+		return id == null ? -1 : id;
+	}
+
+	private void resolve(String name) {
+		// iterative, since a missing graph file means resolving the whole history
+		HashMap<String, List<String>> loadedParents = new HashMap<>();
+		HashSet<String> missing = new HashSet<>();
+		ArrayDeque<String> stack = new ArrayDeque<>();
+		stack.push(name);
+		while (!stack.isEmpty()) {
+			String current = stack.peek();
+			if (ids.containsKey(current) || missing.contains(current)) {
+				stack.pop();
+				continue;
+			}
+			List<String> parentNames = loadedParents.containsKey(current) ? loadedParents.get(current)
+					: parentsLoader.apply(current);
+			loadedParents.put(current, parentNames);
+			if (parentNames == null) {
+				missing.add(current);
+				stack.pop();
+				continue;
+			}
+			boolean ready = true;
+			for (String parent : parentNames) {
+				if (!ids.containsKey(parent) && !missing.contains(parent)) {
+					stack.push(parent);
+					ready = false;
+				}
+			}
+			if (ready) {
+				stack.pop();
+				insert(current, parentNames);
+			}
+		}
+	}
+
+	public synchronized String name(int id) {
+		return names.get(id);
+	}
+
+	public synchronized int add(String name, Collection<String> parentNames) {
+		load();
+		Integer existing = ids.get(name);
+		if (existing != null) {
+			return existing;
+		}
+		parentNames.forEach(this::id);
+		return insert(name, parentNames);
+	}
+
+	private int insert(String name, Collection<String> parentNames) {
+		int[] parentIds = parentNames.isEmpty() ? NO_PARENTS
+				: parentNames.stream().map(ids::get).filter(id -> id != null).mapToInt(Integer::intValue).toArray();
+		int id = names.size();
+		if (id == parents.length) {
+			parents = Arrays.copyOf(parents, id * 2);
+			generations = Arrays.copyOf(generations, id * 2);
+		}
+		int generation = 0;
+		for (int parent : parentIds) {
+			generation = Math.max(generation, generations[parent]);
+		}
+		names.add(name);
+		ids.put(name, id);
+		parents[id] = parentIds;
+		generations[id] = generation + 1;
+		changed = true;
+		return id;
+	}
+
+	/**
+	 * Drops every commit outside the given set and renumbers the rest. The set
+	 * has to be closed under parents, as a reachability set is.
+	 */
+	public synchronized void retain(BitSet live) {
+		load();
+		int[] newIds = new int[names.size()];
+		ArrayList<String> liveNames = new ArrayList<>(live.cardinality());
+		int[][] liveParents = new int[Math.max(live.cardinality(), 16)][];
+		int[] liveGenerations = new int[liveParents.length];
+		for (int id = 0; id < names.size(); id++) {
+			if (live.get(id)) {
+				int newId = liveNames.size();
+				newIds[id] = newId;
+				liveNames.add(names.get(id));
+				liveParents[newId] = Arrays.stream(parents[id]).map(parent -> newIds[parent]).toArray();
+				liveGenerations[newId] = generations[id];
+			}
+		}
+		names.clear();
+		names.addAll(liveNames);
+		ids.clear();
+		for (int id = 0; id < names.size(); id++) {
+			ids.put(names.get(id), id);
+		}
+		parents = liveParents;
+		generations = liveGenerations;
+		reachability.clear();
+		changed = true;
+	}
+
+	/**
+	 * Returns the ids of all commits reachable from the given tips (the tips
+	 * included). The result must not be modified.
+	 */
+	public synchronized BitSet reachable(Collection<String> tips) {
+		BitSet result = new BitSet(size());
+		for (String tip : tips) {
+			int id = id(tip);
+			if (id >= 0) {
+				result.or(reachable(id));
+			}
+		}
+		return result;
+	}
+
+	public synchronized BitSet reachable(int tip) {
+		BitSet cached = reachability.get(tip);
+		if (cached != null) {
+			return cached;
+		}
+		BitSet result = new BitSet(names.size());
+		ArrayDeque<Integer> stack = new ArrayDeque<>();
+		stack.push(tip);
+		while (!stack.isEmpty()) {
+			int id = stack.pop();
+			if (result.get(id)) {
+				continue;
+			}
+			BitSet known = id != tip ? reachability.get(id) : null;
+			if (known != null) {
+				result.or(known);
+				continue;
+			}
+			result.set(id);
+			for (int parent : parents[id]) {
+				if (!result.get(parent)) {
+					stack.push(parent);
+				}
+			}
+		}
+		reachability.put(tip, result);
+		return result;
+	}
+
+	/**
+	 * Returns a common ancestor of the two commits that no other common
+	 * ancestor descends from, or -1 if they have none. Both histories are
+	 * walked together in decreasing generation order, so the first commit
+	 * reached from both sides is such a base and nothing older than it is
+	 * visited. Of several bases, as criss-cross merges leave, the one with the
+	 * highest generation is returned.
+	 */
+	public synchronized int mergeBase(int first, int second) {
+		HashMap<Integer, Integer> sides = new HashMap<>();
+		PriorityQueue<Integer> queue = new PriorityQueue<>(
+				Comparator.comparingInt((Integer id) -> generations[id]).reversed());
+		sides.put(first, FIRST_SIDE);
+		sides.merge(second, SECOND_SIDE, (a, b) -> a | b);
+		queue.add(first);
+		if (second != first) {
+			queue.add(second);
+		}
+		while (!queue.isEmpty()) {
+			int id = queue.poll();
+			int side = sides.get(id);
+			if (side == BOTH_SIDES) {
+				return id;
+			}
+			for (int parent : parents[id]) {
+				Integer known = sides.get(parent);
+				if (known == null) {
+					sides.put(parent, side);
+					queue.add(parent);
+				} else if ((known | side) != known) {
+					// still queued, its generation is below the one of every commit already taken
+					sides.put(parent, known | side);
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns true if the commit is an ancestor of (or the same as) the tip.
+	 */
+	public synchronized boolean isReachable(int commit, int tip) {
+		if (generations[commit] > generations[tip]) {
+			return false;
+		}
+		BitSet cached = reachability.get(tip);
+		if (cached != null) {
+			return cached.get(commit);
+		}
+		// walk down only as far as the generation of the commit we look for
+		BitSet visited = new BitSet(names.size());
+		ArrayDeque<Integer> stack = new ArrayDeque<>();
+		stack.push(tip);
+		while (!stack.isEmpty()) {
+			int id = stack.pop();
+			if (id == commit) {
+				return true;
+			}
+			for (int parent : parents[id]) {
+				if (!visited.get(parent) && generations[parent] >= generations[commit]) {
+					visited.set(parent);
+					stack.push(parent);
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Makes save() write the graph to another file, which it does even if
+	 * nothing changed.
+	 */
+	public synchronized void moveTo(Path file) {
+		load();
+		this.file = file;
+		changed = true;
+	}
+
+	public synchronized void save() throws IOException {
+		if (!changed) {
+			return;
+		}
+		Path tmp = Path.of(file + TMP_SUFFIX);
+		try (DataOutputStream output = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(tmp.toFile())))) {
+			output.writeInt(names.size());
+			for (int id = 0; id < names.size(); id++) {
+				writeString(output, names.get(id));
+				output.writeInt(parents[id].length);
+				for (int parent : parents[id]) {
+					output.writeInt(parent);
+				}
+			}
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		changed = false;
+	}
+
+	private void load() {
+		if (loaded) {
+			return;
+		}
+		loaded = true;
+		if (Files.exists(file)) {
+			try (DataInputStream input = new DataInputStream(
+					new BufferedInputStream(new FileInputStream(file.toFile())))) {
+				int size = input.readInt();
+				parents = new int[Math.max(size, 16)][];
+				generations = new int[parents.length];
+				for (int id = 0; id < size; id++) {
+					String name = readString(input);
+					int[] parentIds = new int[input.readInt()];
+					int generation = 0;
+					for (int i = 0; i < parentIds.length; i++) {
+						parentIds[i] = input.readInt();
+						generation = Math.max(generation, generations[parentIds[i]]);
+					}
+					names.add(name);
+					ids.put(name, id);
+					parents[id] = parentIds;
+					generations[id] = generation + 1;
+				}
+			} catch (IOException e) {
+				// the graph is a cache and is rebuilt from the commits on demand
+				names.clear();
+				ids.clear();
+			}
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package git.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+import java.util.zip.InflaterInputStream;
+
+import git.utills.ByteBufferInputStream;
+
+/**
+ * Encoding of object records in the log. Every record starts with a method
+ * byte, so records written with different settings can be read back side by
+ * side. Data that does not shrink below a ratio of its size (e.g. already
+ * compressed images and archives) is kept stored, which also keeps it
+ * readable without copying.
+ */
+public abstract class Compression {
+	public static final double DEFAULT_MAX_RATIO = 0.9;
+	private static final byte STORED = 0;
+	private static final byte DEFLATED = 1;
+	private static final int MIN_SIZE = 64;
+
+	public static Compression none() {
+		return new Compression() {
+			@Override
+			public byte[] encode(byte[] data) {
+				return stored(data);
+			}
+		};
+	}
+
+	public static Compression deflate(int level) {
+		return deflate(level, DEFAULT_MAX_RATIO);
+	}
+
+	/**
+	 * @param level    Deflater level from 1 (fastest) to 9 (smallest), or -1
+	 *                 for the Deflater default
+	 * @param maxRatio the data is stored when deflating does not shrink it to
+	 *                 this fraction of its size or less
+	 */
+	public static Compression deflate(int level, double maxRatio) {
+		if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION)) {
+			throw new IllegalArgumentException("Invalid compression level: " + level);
+		}
+		return new Compression() {
+			@Override
+			public byte[] encode(byte[] data) {
+				if (data.length < MIN_SIZE) {
+					return stored(data);
+				}
+				Deflater deflater = new Deflater(level);
+				try {
+					deflater.setInput(data);
+					deflater.finish();
+					ByteArrayOutputStream output = new ByteArrayOutputStream(data.length / 2 + 16);
+					output.write(DEFLATED);
+					byte[] buffer = new byte[8192];
+					while (!deflater.finished()) {
+						output.write(buffer, 0, deflater.deflate(buffer));
+						if (output.size() > data.length * maxRatio) {
+							return stored(data);
+						}
+					}
+					return output.toByteArray();
+				} finally {
+					deflater.end();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Returns the record for the data: the method byte followed by the payload.
+	 */
+	public abstract byte[] encode(byte[] data);
+
+	private static byte[] stored(byte[] data) {
+		byte[] record = new byte[data.length + 1];
+		record[0] = STORED;
+		System.arraycopy(data, 0, record, 1, data.length);
+		return record;
+	}
+
+	/**
+	 * Returns a stream of the decoded data of the record.
+	 */
+	public static InputStream decode(ByteBuffer record) throws IOException {
+		byte method = record.get();
+		InputStream input = new ByteBufferInputStream(record);
+		return switch (method) {
+		case STORED -> input;
+		case DEFLATED -> new InflaterInputStream(input);
+		default -> throw new IOException("Corrupted record: unknown compression method " + method);
+		};
+	}
+
+	/**
+	 * Returns the data of a stored record as a view of the record, or null if
+	 * the record has to be decoded.
+	 */
+	public static ByteBuffer storedData(ByteBuffer record) {
+		return record.get(record.position()) == STORED ? record.slice(record.position() + 1, record.remaining() - 1)
+				: null;
+	}
+}
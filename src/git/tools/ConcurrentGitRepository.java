@@ -0,0 +1,148 @@
+package git.tools;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Thread-safe view of a repository shared by several clients. Reads (info,
+ * log, branches, commitContent, diff, blame, getHead, ignoredExps) run in parallel
+ * under the read lock, mutations (commit, branch operations, switchTo, merge,
+ * save, gc, ignore rules) are serialized under the write lock. A waiting mutation
+ * holds back readers arriving after it, so a steady stream of info() calls
+ * can't starve commits.
+ * <p>
+ * The wrapped repository must allow its read operations to run concurrently
+ * with each other, as GitRepositoryImpl does.
+ */
+public class ConcurrentGitRepository implements GitRepository {
+	private static final long serialVersionUID = 1L;
+
+	private final GitRepository git;
+	private final transient ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	public ConcurrentGitRepository(GitRepository git) {
+		this.git = git;
+	}
+
+	private <T> T read(Supplier<T> operation) {
+		lock.readLock().lock();
+		try {
+			return operation.get();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private <T> T write(Supplier<T> operation) {
+		lock.writeLock().lock();
+		try {
+			return operation.get();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public String commit(String commitMessage) {
+		return write(() -> git.commit(commitMessage));
+	}
+
+	@Override
+	public List<FileState> info() {
+		return read(git::info);
+	}
+
+	@Override
+	public String createBranch(String branchName) {
+		return write(() -> git.createBranch(branchName));
+	}
+
+	@Override
+	public String renameBranch(String branchName, String newName) {
+		return write(() -> git.renameBranch(branchName, newName));
+	}
+
+	@Override
+	public String deleteBranch(String branchName) {
+		return write(() -> git.deleteBranch(branchName));
+	}
+
+	@Override
+	public Stream<CommitMessage> log(LogQuery query) {
+		// consumed under the lock, a lazy stream would read the history after it is released
+		return read(() -> git.log(query).toList()).stream();
+	}
+
+	@Override
+	public List<String> branches() {
+		return read(git::branches);
+	}
+
+	@Override
+	public List<Path> commitContent(String commitName) {
+		return read(() -> git.commitContent(commitName));
+	}
+
+	@Override
+	public String switchTo(String name) {
+		return write(() -> git.switchTo(name));
+	}
+
+	@Override
+	public String merge(String name) {
+		return write(() -> git.merge(name));
+	}
+
+	@Override
+	public String abortMerge() {
+		return write(git::abortMerge);
+	}
+
+	@Override
+	public List<FileDiff> diff(String from, String to) {
+		return read(() -> git.diff(from, to));
+	}
+
+	@Override
+	public List<BlameLine> blame(String path, String name) {
+		return read(() -> git.blame(path, name));
+	}
+
+	@Override
+	public String getHead() {
+		return read(git::getHead);
+	}
+
+	@Override
+	public void save() {
+		write(() -> {
+			git.save();
+			return null;
+		});
+	}
+
+	@Override
+	public String gc() {
+		return write(git::gc);
+	}
+
+	@Override
+	public String addIgnoredFileNameExp(String regex) {
+		return write(() -> git.addIgnoredFileNameExp(regex));
+	}
+
+	@Override
+	public Set<String> ignoredExps() {
+		return read(git::ignoredExps);
+	}
+
+	@Override
+	public boolean deleteIgnoredExp(String regex) {
+		return write(() -> git.deleteIgnoredExp(regex));
+	}
+}
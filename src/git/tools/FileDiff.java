@@ -0,0 +1,18 @@
+package git.tools;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Changes of one file between two versions: line counts and the patch in the
+ * unified diff format. A binary file has no line counts and a one line patch.
+ */
+public record FileDiff(String path, boolean binary, int insertions, int deletions, List<String> patch)
+		implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	@Override
+	public String toString() {
+		return binary ? String.format("%s | binary", path) : String.format("%s | +%d -%d", path, insertions, deletions);
+	}
+}
@@ -4,9 +4,15 @@ import java.io.Serializable;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.Set;
+import java.util.stream.Stream;
 
 public interface GitRepository extends Serializable {
 	static final String GIT_FILE = ".mygit";
+	static final String REFS_FILE = ".mygit.refs";
+	static final String INDEX_FILE = ".mygit.idx";
+	static final String STAT_FILE = ".mygit.stat";
+	static final String GRAPH_FILE = ".mygit.graph";
+	static final String MERGE_FILE = ".mygit.merge";
 	static final String REPOSITORY = ".";
 
 	String commit(String commitMessage);
@@ -19,17 +25,31 @@ public interface GitRepository extends Serializable {
 
 	String deleteBranch(String branchName);
 
-	List<CommitMessage> log();
+	default List<CommitMessage> log() {
+		return log(LogQuery.ALL).toList();
+	}
+
+	Stream<CommitMessage> log(LogQuery query); // lazy, reads commits only as the stream is consumed
 
 	List<String> branches(); // list of branch names
 
-	List<Path> commitContent(String commitName);
+	List<Path> commitContent(String commitName); // throws IllegalArgumentException for an ambiguous abbreviation
+
+	String switchTo(String name); // name is either a branch name or a commit name, possibly abbreviated
+
+	String merge(String name); // merges a branch or commit into the head branch
 
-	String switchTo(String name); // name is either a commit name or a branch name
+	String abortMerge(); // gives up a merge left with conflicts, restoring the head's files
+
+	List<FileDiff> diff(String from, String to); // to null compares with the working directory
+
+	List<BlameLine> blame(String path, String name); // lines with the commits that last changed them, name null for the head
 
 	String getHead(); // return null if head refers commit with no branch
 
-	void save(); // saving to .mygit serialization to file (Object Stream)
+	void save(); // appends new objects to .mygit/.mygit.idx and rewrites head/branches in .mygit.refs
+
+	String gc(); // removes commits and objects unreachable from the branches and head, compacts .mygit into new files named by .mygit.refs
 
 	String addIgnoredFileNameExp(String regex);
 
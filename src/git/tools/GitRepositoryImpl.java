@@ -1,93 +1,231 @@
 package git.tools;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
-import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestOutputStream;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.time.LocalDateTime;
-import java.time.ZoneId;
 import java.util.*;
 import java.util.regex.PatternSyntaxException;
-import java.util.stream.Collectors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Stream;
 
 import static git.utills.ByteUtills.*;
 
+/**
+ * Repository in the current directory. Read operations (info, log, branches,
+ * commitContent, getHead, ignoredExps) may run concurrently with each other;
+ * everything else needs exclusive access, which ConcurrentGitRepository
+ * provides when the repository is shared between threads.
+ */
 public class GitRepositoryImpl implements GitRepository {
 	private static final long serialVersionUID = -1294812L;
-	private static final int MAX_DEPTH = 1;
-	private static final String TEST_STRING = "testString";
 	private static final String INITIAL_BRANCH = "master";
+	private static final String TMP_SUFFIX = ".tmp";
 	private static final int COMMIT_SHORT_NAME_LENGHT = 7;
-
-	private static final String ALGORITHM = "SHA-1";
-	private static MessageDigest digest;
+	private static final int MAX_AMBIGUOUS_SHOWN = 5;
+	private static final int DIFF_CONTEXT = 3;
+	private static final String NO_FILE = "/dev/null";
+	private static final int SCAN_THRESHOLD = 64;
+	private static final double DEFAULT_AUTO_GC_RATIO = 0.5;
+	private static final String LEGACY_FILE = GIT_FILE + ".legacy";
 
 	private String head;
 	private final HashMap<String, String> branches = new HashMap<>();
-	private final HashMap<String, Commit> commits = new HashMap<>();
-	private final HashSet<String> ignoredExps = new HashSet<>();
+	private final IgnoreRules ignoreRules = new IgnoreRules();
+	private transient ObjectStore store = new ObjectStore(Path.of(GIT_FILE), Path.of(INDEX_FILE));
+	private transient WorkingTreeIndex workingTree = new WorkingTreeIndex(Path.of(STAT_FILE));
+	private transient ForkJoinPool scanPool = ForkJoinPool.commonPool();
+	private transient CommitGraph graph = new CommitGraph(Path.of(GRAPH_FILE), this::loadParents);
+	private transient Blame blame = new Blame(name -> store.getCommit(name), this::fileBlob, id -> store.getBlob(id));
+	private transient WorkingTreeWatcher watcher;
+	private transient RepositoryMetrics metrics = RepositoryMetrics.DISABLED;
+	private transient double autoGcRatio = DEFAULT_AUTO_GC_RATIO;
+	private transient boolean branchesDeleted;
+	private transient int generation;
+	private transient TreeMap<String, String> watchedFiles;
+	private final transient Object watchLock = new Object();
 
 	public static GitRepositoryImpl init() {
 		GitRepositoryImpl git = new GitRepositoryImpl();
-		if (Files.exists(Path.of(GIT_FILE))) {
-			try (ObjectInputStream input = new ObjectInputStream(new FileInputStream(GIT_FILE))) {
-				git = (GitRepositoryImpl) input.readObject();
-			} catch (Exception e) {
-				new RuntimeException(e);
-			}
-		}
 		try {
-			digest = MessageDigest.getInstance(ALGORITHM);
-		} catch (NoSuchAlgorithmException e) {
-			// Unreachable code
+			if (Files.exists(Path.of(REFS_FILE))) {
+				git.load();
+			} else if (isLegacy() || Files.exists(Path.of(LEGACY_FILE))) {
+				git.migrate();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
 		}
 		return git;
 	}
 
+	/**
+	 * Converts a repository the first version saved by serializing it whole
+	 * into .mygit. The serialized file is moved to LEGACY_FILE and kept, so a
+	 * conversion cut short starts over from it. Commits keep their 7 character
+	 * keys and their files are stored as delta chains along the history.
+	 */
+	private void migrate() throws IOException {
+		Path legacyFile = Path.of(LEGACY_FILE);
+		if (isLegacy()) {
+			Files.move(Path.of(GIT_FILE), legacyFile, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		}
+		git.tools.legacy.GitRepositoryImpl legacy = git.tools.legacy.GitRepositoryImpl.read(legacyFile);
+		List<Map.Entry<String, git.tools.legacy.Commit>> commits = new ArrayList<>(legacy.commits().entrySet());
+		// a commit is dated at its creation, after its previous commit
+		commits.sort(Comparator.comparing(commit -> commit.getValue().getDate()));
+		HashMap<String, TreeMap<String, String>> commitFiles = new HashMap<>();
+		for (Map.Entry<String, git.tools.legacy.Commit> entry : commits) {
+			git.tools.legacy.Commit commit = entry.getValue();
+			Map<String, String> prevFiles = commitFiles.getOrDefault(commit.getPrevCommit(), new TreeMap<>());
+			TreeMap<String, String> files = new TreeMap<>();
+			commit.getFiles().forEach((path, file) -> files.put(toRepositoryPath(Path.of(path)),
+					store.putBlob(legacyContent(file), prevFiles.get(toRepositoryPath(Path.of(path))))));
+			String tree = Tree.build(files, store::putTree).id();
+			store.putCommit(entry.getKey(),
+					new Commit(commit.getName(), commit.getMessage(), commit.getPrevCommit(), tree, commit.getDate()));
+			commitFiles.put(entry.getKey(), files);
+		}
+		head = legacy.head();
+		branches.putAll(legacy.branches());
+		legacy.ignoredExps().forEach(ignoreRules::add);
+		persist();
+	}
+
+	private static boolean isLegacy() throws IOException {
+		return git.tools.legacy.GitRepositoryImpl.isLegacy(Path.of(GIT_FILE));
+	}
+
+	/**
+	 * Returns the bytes the first version wrote a file with: every line ended
+	 * by the line separator, as Files.write does.
+	 */
+	private static byte[] legacyContent(git.tools.legacy.File file) {
+		StringBuilder content = new StringBuilder();
+		for (String line : file.data()) {
+			content.append(line).append(System.lineSeparator());
+		}
+		return content.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private void load() throws IOException {
+		try (DataInputStream input = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(REFS_FILE)))) {
+			long logLength = input.readLong();
+			long indexLength = input.readLong();
+			generation = input.readInt();
+			head = readString(input);
+			int branchesCount = input.readInt();
+			for (int i = 0; i < branchesCount; i++) {
+				branches.put(readString(input), readString(input));
+			}
+			int expsCount = input.readInt();
+			for (int i = 0; i < expsCount; i++) {
+				ignoreRules.add(readString(input));
+			}
+			store = ObjectStore.open(generationFile(GIT_FILE, generation), generationFile(INDEX_FILE, generation),
+					logLength, indexLength);
+			graph = new CommitGraph(generationFile(GRAPH_FILE, generation), this::loadParents);
+		}
+		// left by a gc interrupted before or after it switched generations
+		deleteGeneration(1 - generation);
+	}
+
+	/**
+	 * Returns the name of a store file in the given generation. gc() writes the
+	 * compacted files under the names of the other generation, and the refs
+	 * file naming the generation in use switches to them with a single rename.
+	 */
+	private static Path generationFile(String file, int generation) {
+		return Path.of(generation == 0 ? file : file + "." + generation);
+	}
+
+	private static void deleteGeneration(int generation) throws IOException {
+		for (String file : List.of(GIT_FILE, INDEX_FILE, GRAPH_FILE)) {
+			Files.deleteIfExists(generationFile(file, generation));
+		}
+	}
+
 	@Override
 	public String commit(String commitMessage) {
-		List<FileState> fileStates = info();
+		WorkingState workingState = scan(true);
 		if (getHead() == null && head != null) {
 			return "Unable to commit with no branch.";
 		}
-		if (!hasFilesToCommit(fileStates)) {
+		String mergedCommit = pendingMerge();
+		if (!hasFilesToCommit(workingState.states()) && mergedCommit == null) {
 			return "Nothing to commit.";
 		}
 
-		Map<String, File> files = fileStates.stream().filter(file -> file.status() != Status.DELETED)
-				.map(FileState::name).collect(Collectors.toMap(s -> s, this::getFile));
-		String commitName = generateCommitName((Serializable) files);
-		String shortCommitName = commitName.substring(0, COMMIT_SHORT_NAME_LENGHT);
-		commits.put(shortCommitName, new Commit(commitName, commitMessage, getCommitName(head), files));
+		Commit headCommit = store.getCommit(getCommitName(head));
+		TreeMap<String, String> files = storeBlobs(workingState.files(), headCommit);
+		String tree = Tree.build(files, store::putTree).id();
+		String commitName = addCommit(commitMessage, getCommitName(head),
+				mergedCommit != null ? List.of(mergedCommit) : List.of(), tree);
+		setPendingMerge(null);
 
 		if (head == null) {
-			head = shortCommitName;
+			head = commitName;
 			createBranch(INITIAL_BRANCH);
 		} else {
-			branches.replace(head, shortCommitName);
+			branches.replace(head, commitName);
 		}
 		return String.format("Successfully commited to branch \"%s\".", head);
 	}
 
-	private File getFile(String file) {
-		try {
-			Path filePath = Path.of(file);
-			return new File(Files.readAllLines(filePath).toArray(String[]::new),
-					Files.getLastModifiedTime(filePath).toInstant());
-		} catch (IOException e) {
-			// FIXME
-			throw new RuntimeException(e);
+	private TreeMap<String, String> storeBlobs(TreeMap<String, String> files, Commit headCommit) {
+		TreeMap<String, String> stored = new TreeMap<>(files);
+		Map<String, String> prevVersions = null;
+		for (Map.Entry<String, String> file : files.entrySet()) {
+			if (!store.containsBlob(file.getValue())) {
+				if (prevVersions == null) {
+					prevVersions = files(headCommit);
+				}
+				try {
+					byte[] data = Files.readAllBytes(Path.of(file.getKey()));
+					metrics.countRead(data.length);
+					stored.put(file.getKey(), store.putBlob(data, prevVersions.get(file.getKey())));
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
 		}
+		return stored;
 	}
 
-	private String generateCommitName(Serializable data) {
-		try {
-			return byteArrayToHexString(digest.digest(toBytesArray(data)));
+	private String addCommit(String message, String prevCommit, List<String> mergedCommits, String tree) {
+		LocalDateTime date = LocalDateTime.now();
+		String commitName = generateCommitName(prevCommit, mergedCommits, message, date, tree);
+		Commit commit = new Commit(commitName, message, prevCommit, mergedCommits, tree, date);
+		store.putCommit(commitName, commit);
+		graph.add(commitName, commit.getParents());
+		return commitName;
+	}
+
+	private String generateCommitName(String prevCommit, List<String> mergedCommits, String message,
+			LocalDateTime date, String tree) {
+		MessageDigest digest = sha1();
+		try (DataOutputStream output = new DataOutputStream(
+				new DigestOutputStream(OutputStream.nullOutputStream(), digest))) {
+			writeString(output, prevCommit);
+			writeString(output, message);
+			writeString(output, date.toString());
+			writeString(output, tree);
+			for (String merged : mergedCommits) {
+				writeString(output, merged);
+			}
 		} catch (IOException e) {
-			// FIXME
-			throw new RuntimeException(e);
+			// Unreachable code: nothing is written to a real stream
+			throw new UncheckedIOException(e);
 		}
+		return byteArrayToHexString(digest.digest());
 	}
 
 	@Override
@@ -95,6 +233,9 @@ public class GitRepositoryImpl implements GitRepository {
 		if (head == null) {
 			return "Unable to create branch: there are no commits in the repository.";
 		}
+		if (pendingMerge() != null) {
+			return "Unable to create branch: a merge is in progress, commit the resolved files or abort it first.";
+		}
 		if (branches.putIfAbsent(branchName, getCommitName(head)) == null) {
 			head = branchName;
 			return String.format("Branch \"%s\" has been created.", branchName);
@@ -129,23 +270,20 @@ public class GitRepositoryImpl implements GitRepository {
 		if (branches.remove(branchName) == null) {
 			return String.format(errorMsg, branchName);
 		}
-		Set<String> branchCommits = new HashSet<>();
-		branches.keySet().stream().forEach(branch -> {
-			String commitName = branches.get(branch);
-			while (commitName != null) {
-				branchCommits.add(commitName);
-				commitName = commits.get(commitName).getPrevCommit();
-			}
-		});
-		String commitName = branches.get(branchName);
-		while (!branchCommits.contains(commitName)) {
-			commits.remove(commitName);
-			commitName = commits.get(commitName).getPrevCommit();
-		}
+		// commits of the branch are left for the garbage collector
+		branchesDeleted = true;
 
 		return String.format(msg, branchName);
 	}
 
+	private List<String> loadParents(String commitName) {
+		Commit commit = store.getCommit(commitName);
+		if (commit == null) {
+			return null;
+		}
+		return commit.getParents();
+	}
+
 	@Override
 	public List<String> branches() {
 		Set<String> bSet = new HashSet<>(branches.keySet());
@@ -157,63 +295,402 @@ public class GitRepositoryImpl implements GitRepository {
 
 	@Override
 	public List<Path> commitContent(String commitName) {
-		Commit commit = commits.get(getCommitName(commitName));
-		return new ArrayList<Path>(commit != null ? commit.getFiles().keySet().stream().sorted().map(Path::of).toList()
+		Commit commit = store.getCommit(resolve(commitName));
+		return new ArrayList<Path>(commit != null ? files(commit).keySet().stream().map(Path::of).toList()
 				: Collections.emptyList());
 	}
 
+	private Tree rootTree(Commit commit) {
+		return commit != null ? store.getTree(commit.getTree()) : Tree.EMPTY;
+	}
+
+	private TreeMap<String, String> files(Commit commit) {
+		TreeMap<String, String> files = new TreeMap<>();
+		Tree.walk(rootTree(commit), store::getTree, files::put);
+		return files;
+	}
+
 	private String getCommitName(String name) {
 		return branches.getOrDefault(name, name);
 	}
 
+	/**
+	 * Returns the full name of the commit a branch or an abbreviated commit name
+	 * refers to, or null if there is no such commit. Commits saved before they
+	 * were keyed by full names are keyed by their first
+	 * COMMIT_SHORT_NAME_LENGHT characters, so they are also looked up by those.
+	 *
+	 * @throws IllegalArgumentException if the abbreviation fits several commits
+	 */
+	private String resolve(String name) {
+		if (name == null || branches.containsKey(name)) {
+			return getCommitName(name);
+		}
+		List<String> commits = store.commitsByPrefix(name, MAX_AMBIGUOUS_SHOWN + 1);
+		if (commits.isEmpty() && name.length() > COMMIT_SHORT_NAME_LENGHT) {
+			// only a legacy key itself, not any longer name sharing its first characters
+			String legacyName = name.substring(0, COMMIT_SHORT_NAME_LENGHT);
+			commits = store.getCommit(legacyName) != null ? List.of(legacyName) : commits;
+		}
+		if (commits.size() > 1) {
+			throw new IllegalArgumentException(String.format("Commit name %s is ambiguous, it may be %s%s.", name,
+					String.join(", ", commits.subList(0, Math.min(commits.size(), MAX_AMBIGUOUS_SHOWN))),
+					commits.size() > MAX_AMBIGUOUS_SHOWN ? " or more" : ""));
+		}
+		return commits.isEmpty() ? null : commits.get(0);
+	}
+
 	@Override
 	public String switchTo(String name) {
-		if (hasFilesToCommit(info())) {
+		if (pendingMerge() != null) {
+			return "A merge is in progress: commit the resolved files or abort it first.";
+		}
+		if (hasFilesToCommit(scan(true).states())) {
 			return "There are uncommited files: switchTo may only be done after commit.";
 		}
-		if (head.equals(name)) {
+		String commitName;
+		try {
+			commitName = resolve(name);
+		} catch (IllegalArgumentException e) {
+			return "Unable to switch: " + e.getMessage();
+		}
+		String target = branches.containsKey(name) ? name : commitName;
+		if (head.equals(target)) {
 			return String.format("Head's already on %s with name \"%s\".",
 					branches.containsKey(head) ? "branch" : "commit", name);
 		}
-		if (!commits.containsKey(getCommitName(name))) {
+		if (commitName == null) {
 			return String.format("Unable to switch: branch/commit with name %s doesn't exist.", name);
 		}
 
-		deleteCurrentFiles();
-		restoreFilesFromCommit(name);
-		head = name;
+		checkout(rootTree(store.getCommit(getCommitName(head))), rootTree(store.getCommit(commitName)));
+		head = target;
 		return String.format("Successfully switched to %s \"%s\".", branches.containsKey(head) ? "branch" : "commit",
 				name);
 	}
 
+	/**
+	 * Merges the commit a branch or commit name refers to into the head
+	 * branch. A head the commit descends from is moved forward to it;
+	 * otherwise the files changed since the merge base on both sides are
+	 * merged line by line and a merge commit is created. On conflicts the
+	 * files are left with conflict markers and the next commit becomes the
+	 * merge commit.
+	 */
+	@Override
+	public String merge(String name) {
+		if (getHead() == null) {
+			return "Unable to merge with no branch.";
+		}
+		if (pendingMerge() != null) {
+			return "A merge is in progress: commit the resolved files or abort it first.";
+		}
+		if (hasFilesToCommit(scan(true).states())) {
+			return "There are uncommited files: merge may only be done after commit.";
+		}
+		String theirs;
+		try {
+			theirs = resolve(name);
+		} catch (IllegalArgumentException e) {
+			return "Unable to merge: " + e.getMessage();
+		}
+		if (theirs == null) {
+			return String.format("Unable to merge: branch/commit with name %s doesn't exist.", name);
+		}
+		String ours = getCommitName(head);
+		int ourId = graph.id(ours);
+		int theirId = graph.id(theirs);
+		if (graph.isReachable(theirId, ourId)) {
+			return String.format("Branch \"%s\" is already up to date with %s.", head, name);
+		}
+		Commit ourCommit = store.getCommit(ours);
+		Commit theirCommit = store.getCommit(theirs);
+		if (graph.isReachable(ourId, theirId)) {
+			checkout(rootTree(ourCommit), rootTree(theirCommit));
+			branches.replace(head, theirs);
+			return String.format("Branch \"%s\" has been fast-forwarded to %s.", head, name);
+		}
+
+		TreeMap<String, String> files = files(ourCommit);
+		int base = graph.mergeBase(ourId, theirId);
+		List<String> conflicts = mergeFiles(files, base >= 0 ? store.getCommit(graph.name(base)) : null,
+				theirCommit, name);
+		Tree merged = Tree.build(files, store::putTree);
+		checkout(rootTree(ourCommit), merged);
+		if (!conflicts.isEmpty()) {
+			setPendingMerge(theirs);
+			return String.format("Automatic merge failed, fix the conflicts in %s and commit the result.",
+					String.join(", ", conflicts));
+		}
+		branches.replace(head, addCommit(String.format("Merge %s into %s", name, head), ours, List.of(theirs),
+				merged.id()));
+		return String.format("Successfully merged %s into branch \"%s\".", name, head);
+	}
+
+	/**
+	 * Gives up a merge waiting for its conflicts to be resolved: the files of
+	 * the head commit are restored and the files the merge brought in are
+	 * deleted. Untracked files that are not in the merged commit are kept.
+	 */
+	@Override
+	public String abortMerge() {
+		String mergedCommit = pendingMerge();
+		if (mergedCommit == null) {
+			return "No merge is in progress.";
+		}
+		TreeMap<String, String> headFiles = files(store.getCommit(getCommitName(head)));
+		TreeMap<String, String> theirFiles = files(store.getCommit(mergedCommit));
+		TreeMap<String, String> working = workingFiles(true);
+		try {
+			for (String path : working.keySet()) {
+				if (!headFiles.containsKey(path) && theirFiles.containsKey(path)) {
+					Path file = Path.of(path);
+					Files.delete(file);
+					deleteEmptyParents(file);
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		List<String> names = new ArrayList<>();
+		List<String> blobs = new ArrayList<>();
+		headFiles.forEach((path, blob) -> {
+			if (!isRepositoryFile(path) && !blob.equals(working.get(path))) {
+				names.add(path);
+				blobs.add(blob);
+			}
+		});
+		writeFiles(names, blobs);
+		setPendingMerge(null);
+		return String.format("Merge of %s into branch \"%s\" has been aborted.",
+				store.abbreviate(mergedCommit, COMMIT_SHORT_NAME_LENGHT), head);
+	}
+
+	/**
+	 * Applies to our files the changes made from the base to their commit and
+	 * returns the paths in conflict.
+	 */
+	private List<String> mergeFiles(TreeMap<String, String> files, Commit base, Commit theirs, String theirLabel) {
+		Map<String, String> ourFiles = new HashMap<>(files);
+		List<String> conflicts = new ArrayList<>();
+		Tree.diff(rootTree(base), store::getTree, rootTree(theirs), store::getTree, change -> {
+			String path = change.path();
+			String ourBlob = ourFiles.get(path);
+			if (Objects.equals(ourBlob, change.oldBlob())) {
+				if (change.newBlob() != null) {
+					files.put(path, change.newBlob());
+				} else {
+					files.remove(path);
+				}
+			} else if (!Objects.equals(ourBlob, change.newBlob())) {
+				if (ourBlob == null || change.newBlob() == null) {
+					// modified on one side and deleted on the other, the modified version is kept
+					files.put(path, ourBlob != null ? ourBlob : change.newBlob());
+					conflicts.add(path);
+					return;
+				}
+				byte[] ourData = store.getBlob(ourBlob);
+				byte[] theirData = store.getBlob(change.newBlob());
+				byte[] baseData = change.oldBlob() != null ? store.getBlob(change.oldBlob()) : new byte[0];
+				if (LineDiff.isBinary(ourData) || LineDiff.isBinary(theirData)) {
+					conflicts.add(path);
+					return;
+				}
+				LineMerge.Result result = LineMerge.merge(baseData, ourData, theirData, head, theirLabel);
+				files.put(path, store.putBlob(result.data(), ourBlob));
+				if (result.conflicts() > 0) {
+					conflicts.add(path);
+				}
+			}
+		});
+		return conflicts;
+	}
+
+	/**
+	 * Returns the commit being merged while a merge waits for its conflicts to
+	 * be resolved, or null.
+	 */
+	private String pendingMerge() {
+		try {
+			Path file = Path.of(MERGE_FILE);
+			return Files.exists(file) ? Files.readString(file).trim() : null;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void setPendingMerge(String commitName) {
+		try {
+			if (commitName != null) {
+				Files.writeString(Path.of(MERGE_FILE), commitName);
+			} else {
+				Files.deleteIfExists(Path.of(MERGE_FILE));
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public List<FileDiff> diff(String from, String to) {
+		Commit oldCommit = store.getCommit(existingCommit(from));
+		List<FileDiff> diffs = new ArrayList<>();
+		if (to != null) {
+			Commit newCommit = store.getCommit(existingCommit(to));
+			Tree.diff(rootTree(oldCommit), store::getTree, rootTree(newCommit), store::getTree,
+					change -> diffs.add(fileDiff(change, change.newBlob() != null ? store.getBlob(change.newBlob())
+							: null)));
+		} else {
+			TreeMap<String, String> files = workingFiles(false);
+			HashMap<String, Tree> workingTrees = new HashMap<>();
+			Tree working = Tree.build(files, tree -> workingTrees.put(tree.id(), tree));
+			Tree.diff(rootTree(oldCommit), store::getTree, working, workingTrees::get, change -> {
+				Path path = Path.of(change.path());
+				if (change.newBlob() != null) {
+					diffs.add(fileDiff(change, readWorkingFile(path)));
+				} else if (!Files.isRegularFile(path)) {
+					// a committed file still there without a blob is ignored now, not deleted
+					diffs.add(fileDiff(change, null));
+				}
+			});
+		}
+		return diffs;
+	}
+
+	/**
+	 * Annotates the lines of a file at a branch or commit, or at the head if
+	 * the name is null, with the commits that last changed them.
+	 */
+	@Override
+	public List<BlameLine> blame(String path, String name) {
+		String commitName = name != null ? existingCommit(name) : getCommitName(head);
+		if (commitName == null) {
+			throw new IllegalArgumentException("There are no commits in the repository.");
+		}
+		String file = toRepositoryPath(Path.of(path).normalize());
+		String blob = fileBlob(store.getCommit(commitName), file);
+		if (blob == null) {
+			throw new IllegalArgumentException(String.format("File %s doesn't exist in %s.", path,
+					name != null ? name : "the head"));
+		}
+		byte[] data = store.getBlob(blob);
+		if (LineDiff.isBinary(data)) {
+			throw new IllegalArgumentException(String.format("File %s is binary.", path));
+		}
+		String[] origins = blame.annotate(file, commitName).origins();
+		int[] bounds = LineDelta.lineBounds(data);
+		HashMap<String, Commit> commits = new HashMap<>();
+		HashMap<String, String> shortNames = new HashMap<>();
+		List<BlameLine> lines = new ArrayList<>(origins.length);
+		for (int line = 0; line < origins.length; line++) {
+			String origin = origins[line];
+			Commit commit = commits.computeIfAbsent(origin, store::getCommit);
+			String shortName = shortNames.computeIfAbsent(origin,
+					commitOrigin -> store.abbreviate(commitOrigin, COMMIT_SHORT_NAME_LENGHT));
+			int end = bounds[line + 1] > bounds[line] && data[bounds[line + 1] - 1] == '\n' ? bounds[line + 1] - 1
+					: bounds[line + 1];
+			lines.add(new BlameLine(line + 1, origin, shortName, commit.getDate(),
+					new String(data, bounds[line], end - bounds[line], StandardCharsets.UTF_8)));
+		}
+		return lines;
+	}
+
+	private String fileBlob(Commit commit, String path) {
+		return commit != null ? Tree.lookup(rootTree(commit), store::getTree, path) : null;
+	}
+
+	private String existingCommit(String name) {
+		String commitName = resolve(name);
+		if (commitName == null) {
+			throw new IllegalArgumentException(String.format("Branch/commit with name %s doesn't exist.", name));
+		}
+		return commitName;
+	}
+
+	private byte[] readWorkingFile(Path path) {
+		try {
+			byte[] data = Files.readAllBytes(path);
+			metrics.countRead(data.length);
+			return data;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private FileDiff fileDiff(Tree.Change change, byte[] newData) {
+		byte[] oldData = change.oldBlob() != null ? store.getBlob(change.oldBlob()) : new byte[0];
+		String oldName = change.oldBlob() != null ? "a/" + change.path() : NO_FILE;
+		String newName = newData != null ? "b/" + change.path() : NO_FILE;
+		newData = newData != null ? newData : new byte[0];
+		List<String> patch = new ArrayList<>();
+		patch.add(String.format("diff --git a/%1$s b/%1$s", change.path()));
+		if (LineDiff.isBinary(oldData) || LineDiff.isBinary(newData)) {
+			patch.add(String.format("Binary files %s and %s differ", oldName, newName));
+			return new FileDiff(change.path(), true, 0, 0, patch);
+		}
+		LineDiff lines = LineDiff.of(oldData, newData);
+		patch.addAll(lines.unified(oldName, newName, DIFF_CONTEXT));
+		return new FileDiff(change.path(), false, lines.insertions(), lines.deletions(), patch);
+	}
+
 	private boolean hasFilesToCommit(List<FileState> files) {
 		return files.stream().anyMatch(file -> file.status() != Status.COMMITTED);
 	}
 
-	private void restoreFilesFromCommit(String name) {
-		Commit commit = commits.get(getCommitName(name));
-		commit.getFiles().entrySet().forEach(entry -> {
-			Path filePath = Path.of(entry.getKey());
-			File file = entry.getValue();
-			try {
-				Files.createFile(filePath);
-				Files.write(filePath, Arrays.asList(file.data()));
-				Files.setLastModifiedTime(filePath, FileTime.from(file.lastModified()));
-			} catch (IOException e) {
-				// FIXME
-				throw new RuntimeException(e);
+	/**
+	 * Updates the working directory from one tree to another touching only the
+	 * files that differ between them. Deletions go first, so a file may be
+	 * replaced by a directory of the same name, then the new contents are
+	 * written in parallel.
+	 */
+	private void checkout(Tree from, Tree to) {
+		List<String> names = new ArrayList<>();
+		List<String> blobs = new ArrayList<>();
+		Tree.diff(from, store::getTree, to, store::getTree, change -> {
+			if (isRepositoryFile(change.path())) {
+				// committed before the repository's files were left out of the scan
+				return;
+			}
+			if (change.newBlob() != null) {
+				names.add(change.path());
+				blobs.add(change.newBlob());
+			} else {
+				try {
+					Path file = Path.of(change.path());
+					Files.delete(file);
+					deleteEmptyParents(file);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
 			}
 		});
+		writeFiles(names, blobs);
 	}
 
-	private void deleteCurrentFiles() {
-		for (Path file : commitContent(head)) {
-			try {
-				Files.delete(file);
-			} catch (IOException e) {
-				// FIXME
-				throw new RuntimeException(e);
-			}
+	private void writeFiles(List<String> names, List<String> blobs) {
+		// blobs are looked up here, the store is not shared with the writing threads
+		ByteBuffer[] contents = new ByteBuffer[blobs.size()];
+		for (int i = 0; i < contents.length; i++) {
+			contents[i] = store.getBlobContent(blobs.get(i));
+			metrics.countWritten(contents[i].remaining());
+		}
+		scanPool.invoke(new WriteTask(names, contents, 0, contents.length));
+	}
+
+	private void deleteEmptyParents(Path file) throws IOException {
+		Path dir = file.getParent();
+		while (dir != null && isEmptyDirectory(dir)) {
+			Files.delete(dir);
+			dir = dir.getParent();
+		}
+	}
+
+	private boolean isEmptyDirectory(Path dir) throws IOException {
+		if (!Files.isDirectory(dir)) {
+			return false;
+		}
+		try (Stream<Path> entries = Files.list(dir)) {
+			return entries.findAny().isEmpty();
 		}
 	}
 
@@ -222,21 +699,126 @@ public class GitRepositoryImpl implements GitRepository {
 		return branches.containsKey(head) ? head : null;
 	}
 
+	@Override
+	public String gc() {
+		try {
+			store.flush();
+			BitSet liveCommits = graph.reachable(liveTips());
+			HashSet<String> live = new HashSet<>();
+			for (int id = liveCommits.nextSetBit(0); id >= 0; id = liveCommits.nextSetBit(id + 1)) {
+				String commitName = graph.name(id);
+				live.add(commitName);
+				markTree(store.getCommit(commitName).getTree(), live);
+			}
+			int commitsCount = graph.size();
+			long logLength = store.logLength();
+			int previous = generation;
+			generation = 1 - generation;
+			int removed = store.compact(live, generationFile(GIT_FILE, generation),
+					generationFile(INDEX_FILE, generation));
+			graph.retain(liveCommits);
+			graph.moveTo(generationFile(GRAPH_FILE, generation));
+			blame.clear();
+			branchesDeleted = false;
+			persist();
+			deleteGeneration(previous);
+			return String.format("Garbage collection removed %d commits and %d objects in total, %d bytes reclaimed.",
+					commitsCount - liveCommits.cardinality(), removed, logLength - store.logLength());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private Set<String> liveTips() {
+		Set<String> tips = new HashSet<>(branches.values());
+		if (head != null) {
+			tips.add(getCommitName(head));
+		}
+		String mergedCommit = pendingMerge();
+		if (mergedCommit != null) {
+			tips.add(mergedCommit);
+		}
+		return tips;
+	}
+
+	private void markTree(String tree, Set<String> live) {
+		if (!live.add(tree)) {
+			// shared subtree, already marked with everything below it
+			return;
+		}
+		store.getTree(tree).entries().values().forEach(entry -> {
+			if (entry.directory()) {
+				markTree(entry.id(), live);
+			} else {
+				// a delta needs its bases, up to one already marked with the rest of its chain
+				String blob = entry.id();
+				while (blob != null && !live.contains(blob)) {
+					live.add(blob);
+					blob = store.blobBase(blob);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Sets the share of unreachable commits at which save() runs the garbage
+	 * collector after branches were deleted, 0 disables it.
+	 */
+	public void setAutoGcRatio(double ratio) {
+		autoGcRatio = ratio;
+	}
+
+	private boolean needsGc() {
+		if (!branchesDeleted || autoGcRatio <= 0 || graph.size() == 0) {
+			return false;
+		}
+		int unreachable = graph.size() - graph.reachable(liveTips()).cardinality();
+		return (double) unreachable / graph.size() >= autoGcRatio;
+	}
+
 	@Override
 	public void save() {
-		try (ObjectOutputStream output = new ObjectOutputStream(new FileOutputStream(GIT_FILE))) {
-			output.writeObject(this);
-		} catch (Exception e) {
-			// FIXME
-			throw new RuntimeException(e);
+		if (needsGc()) {
+			gc();
+		} else {
+			persist();
+		}
+	}
+
+	private void persist() {
+		try {
+			store.flush();
+			workingTree.save();
+			graph.save();
+			Path tmp = Path.of(REFS_FILE + TMP_SUFFIX);
+			try (DataOutputStream output = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(tmp.toFile())))) {
+				output.writeLong(store.logLength());
+				output.writeLong(store.indexLength());
+				output.writeInt(generation);
+				writeString(output, head);
+				output.writeInt(branches.size());
+				for (Map.Entry<String, String> branch : branches.entrySet()) {
+					writeString(output, branch.getKey());
+					writeString(output, branch.getValue());
+				}
+				Set<String> ignoredExps = ignoreRules.expressions();
+				output.writeInt(ignoredExps.size());
+				for (String exp : ignoredExps) {
+					writeString(output, exp);
+				}
+			}
+			Files.move(tmp, Path.of(REFS_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
 		}
 	}
 
 	@Override
 	public String addIgnoredFileNameExp(String regex) {
 		try {
-			TEST_STRING.matches(regex);
-			ignoredExps.add(regex);
+			ignoreRules.add(regex);
+			restartWatcher();
 			return String.format("Regular expression \"%s\"has been added.", regex);
 		} catch (PatternSyntaxException e) {
 			return "Invalid regular expression.";
@@ -244,71 +826,325 @@ public class GitRepositoryImpl implements GitRepository {
 	}
 
 	public boolean isFileIgnored(String file) {
-		return ignoredExps.stream().anyMatch(file::matches);
+		return ignoreRules.isIgnored(file, false);
 	}
 
 	@Override
 	public List<FileState> info() {
-		List<FileState> files = new ArrayList<>();
+		return scan(false).states();
+	}
+
+	private record WorkingState(List<FileState> states, TreeMap<String, String> files) {
+	}
+
+	/**
+	 * @param sync whether changes made just before the call must be seen, as
+	 *             they must before the working tree is committed or replaced
+	 */
+	private WorkingState scan(boolean sync) {
+		Commit commit = store.getCommit(getCommitName(head));
+		TreeMap<String, String> files = workingFiles(sync);
+		HashMap<String, Tree> workingTrees = new HashMap<>();
+		Tree working = Tree.build(files, tree -> workingTrees.put(tree.id(), tree));
+
+		HashMap<String, Status> changes = new HashMap<>();
+		Tree.diff(rootTree(commit), store::getTree, working, workingTrees::get, change -> {
+			if (change.oldBlob() == null) {
+				changes.put(change.path(), Status.UNTRACKED);
+			} else if (change.newBlob() != null) {
+				changes.put(change.path(), Status.MODIFIED);
+			} else if (!Files.exists(Path.of(change.path()))) {
+				changes.put(change.path(), Status.DELETED);
+			}
+		});
+		List<FileState> states = new ArrayList<>(files.size());
+		files.keySet().forEach(file -> states.add(new FileState(file, changes.getOrDefault(file, Status.COMMITTED))));
+		changes.forEach((file, status) -> {
+			if (status == Status.DELETED) {
+				states.add(new FileState(file, status));
+			}
+		});
+		Collections.sort(states);
+		return new WorkingState(states, files);
+	}
+
+	private TreeMap<String, String> workingFiles(boolean sync) {
+		// callers get a copy, the watched files keep changing under concurrent info() calls
+		synchronized (watchLock) {
+			if (watcher != null && watchedFiles != null) {
+				WorkingTreeWatcher.Changes changes = sync ? watcher.sync() : watcher.poll();
+				if (!changes.overflow()) {
+					metrics.countScanned(changes.paths().size());
+					changes.paths().forEach(path -> updateWatchedFile(toRepositoryPath(path)));
+					return new TreeMap<>(watchedFiles);
+				}
+			}
+		}
+		List<String> names = scanWorkingDirectory(Path.of(REPOSITORY));
+		metrics.countScanned(names.size());
+		String[] blobs = new String[names.size()];
+		scanPool.invoke(new ScanTask(names, blobs, 0, blobs.length));
+		workingTree.retainAll(names);
+
+		TreeMap<String, String> files = new TreeMap<>();
+		for (int i = 0; i < blobs.length; i++) {
+			files.put(names.get(i), blobs[i]);
+		}
+		synchronized (watchLock) {
+			if (watcher != null) {
+				watchedFiles = new TreeMap<>(files);
+			}
+		}
+		return files;
+	}
+
+	private void updateWatchedFile(String name) {
+		// drop the path itself and, if it was a directory, everything below it
+		watchedFiles.remove(name);
+		watchedFiles.subMap(name + Tree.SEPARATOR, name + (char) (Tree.SEPARATOR + 1)).clear();
+		Path path = Path.of(name);
 		try {
-			// get files from directory
-			Files.walk(Path.of(REPOSITORY), MAX_DEPTH).map(Path::getFileName).filter(Files::isRegularFile)
-					.map(Path::toString).filter(file -> !isFileIgnored(file))
-					.map(file -> new FileState(file, getFileStatus(file))).forEach(files::add);
-
-			if (head != null) {
-				// get deleted files
-				commits.get(getCommitName(head)).getFiles().keySet().stream()
-						.filter(file -> !Files.exists(Path.of(file))).map(file -> new FileState(file, Status.DELETED))
-						.forEach(files::add);
+			if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+				if (!isIgnoredPath(name, true)) {
+					for (String file : scanWorkingDirectory(Path.of(REPOSITORY).resolve(path))) {
+						watchedFiles.put(file, workingTree.hash(file));
+					}
+				}
+			} else if (Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS) && !isIgnoredPath(name, false)) {
+				watchedFiles.put(name, workingTree.hash(name));
 			}
 		} catch (IOException e) {
-			// FIXME
-			throw new RuntimeException(e);
+			// the file has gone again, a later event reports its deletion
+			watchedFiles.remove(name);
 		}
-		Collections.sort(files);
-		return files;
 	}
 
-	private Status getFileStatus(String file) {
-		Commit commit = commits.get(getCommitName(head));
-		if (commit == null || !commit.getFiles().containsKey(file)) {
-			return Status.UNTRACKED;
+	private boolean isIgnoredPath(String name, boolean directory) {
+		if (isRepositoryFile(name) || ignoreRules.isIgnored(name, directory)) {
+			return true;
 		}
+		int separator = name.lastIndexOf(Tree.SEPARATOR);
+		return separator > 0 && isIgnoredPath(name.substring(0, separator), true);
+	}
+
+	/**
+	 * In watch mode the working directory is scanned once and afterwards
+	 * info() only re-examines the paths reported by the file system watcher,
+	 * falling back to a full scan when events were lost. Before commit,
+	 * switchTo and merge the watcher is synced, so edits made right before
+	 * them are not missed.
+	 */
+	public void setWatchMode(boolean enabled) {
+		synchronized (watchLock) {
+			try {
+				if (watcher != null) {
+					watcher.close();
+					watcher = null;
+					watchedFiles = null;
+				}
+				if (enabled) {
+					Path root = Path.of(REPOSITORY);
+					watcher = new WorkingTreeWatcher(root,
+							dir -> ignoreRules.isIgnored(toRepositoryPath(root.relativize(dir)), true));
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	private void restartWatcher() {
+		if (watcher != null) {
+			setWatchMode(true);
+		}
+	}
+
+	private List<String> scanWorkingDirectory(Path start) {
+		Path root = Path.of(REPOSITORY);
+		List<String> names = new ArrayList<>();
 		try {
-			LocalDateTime commitTime = commit.getDate();
-			LocalDateTime fileTime = LocalDateTime.ofInstant(Files.getLastModifiedTime(Path.of(file)).toInstant(),
-					ZoneId.systemDefault());
-			return commitTime.isBefore(fileTime) ? Status.MODIFIED : Status.COMMITTED;
+			Files.walkFileTree(start, new SimpleFileVisitor<>() {
+				@Override
+				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+					return dir.equals(root) || !ignoreRules.isIgnored(toRepositoryPath(root.relativize(dir)), true)
+							? FileVisitResult.CONTINUE
+							: FileVisitResult.SKIP_SUBTREE;
+				}
 
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+					if (attrs.isRegularFile()) {
+						String name = toRepositoryPath(root.relativize(file));
+						if (!isRepositoryFile(name) && !ignoreRules.isIgnored(name, false)) {
+							names.add(name);
+						}
+					}
+					return FileVisitResult.CONTINUE;
+				}
+			});
 		} catch (IOException e) {
-			// FIXME
-			throw new RuntimeException(e);
+			throw new UncheckedIOException(e);
+		}
+		return names;
+	}
+
+	/**
+	 * Tells the files of the repository itself, which are never part of the
+	 * working tree whatever the ignore rules: everything in the root named
+	 * after GIT_FILE, including the generations written by gc, temporary files
+	 * of a save and the cookies of the watcher.
+	 */
+	static boolean isRepositoryFile(String path) {
+		return path.startsWith(GIT_FILE) && path.indexOf(Tree.SEPARATOR) < 0;
+	}
+
+	private static String toRepositoryPath(Path path) {
+		StringJoiner joiner = new StringJoiner(String.valueOf(Tree.SEPARATOR));
+		path.forEach(name -> joiner.add(name.toString()));
+		return joiner.toString();
+	}
+
+	/**
+	 * Makes the repository report the bytes it reads and writes and the files
+	 * it scans to the metrics.
+	 */
+	public void setMetrics(RepositoryMetrics metrics) {
+		this.metrics = metrics;
+		store.setMetrics(metrics);
+		workingTree.setMetrics(metrics);
+	}
+
+	/**
+	 * Sets the compression of objects saved from now on, e.g.
+	 * Compression.deflate(9) or Compression.none().
+	 */
+	public void setCompression(Compression compression) {
+		store.setCompression(compression);
+	}
+
+	public void setScanParallelism(int parallelism) {
+		if (scanPool != ForkJoinPool.commonPool()) {
+			scanPool.shutdown();
+		}
+		scanPool = parallelism == ForkJoinPool.commonPool().getParallelism() ? ForkJoinPool.commonPool()
+				: new ForkJoinPool(parallelism);
+	}
+
+	private class ScanTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final List<String> names;
+		private final String[] blobs;
+		private final int from;
+		private final int to;
+
+		ScanTask(List<String> names, String[] blobs, int from, int to) {
+			this.names = names;
+			this.blobs = blobs;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= SCAN_THRESHOLD) {
+				for (int i = from; i < to; i++) {
+					try {
+						blobs[i] = workingTree.hash(names.get(i));
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}
+			} else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new ScanTask(names, blobs, from, middle), new ScanTask(names, blobs, middle, to));
+			}
+		}
+	}
+
+	private static class WriteTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final List<String> names;
+		private final ByteBuffer[] contents;
+		private final int from;
+		private final int to;
+
+		WriteTask(List<String> names, ByteBuffer[] contents, int from, int to) {
+			this.names = names;
+			this.contents = contents;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= SCAN_THRESHOLD) {
+				for (int i = from; i < to; i++) {
+					Path file = Path.of(names.get(i));
+					try {
+						if (file.getParent() != null) {
+							Files.createDirectories(file.getParent());
+						}
+						try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+								StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+							while (contents[i].hasRemaining()) {
+								channel.write(contents[i]);
+							}
+						}
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}
+			} else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new WriteTask(names, contents, from, middle), new WriteTask(names, contents, middle, to));
+			}
 		}
 	}
 
 	@Override
-	public List<CommitMessage> log() {
-		List<CommitMessage> messages = new ArrayList<>();
-		Commit commit = commits.get(getCommitName(head));
-		while (commit != null) {
-			messages.add(new CommitMessage(commit.getName(), commit.getMessage(), commit.getDate()));
-			commit = commits.get(commit.getPrevCommit());
+	public Stream<CommitMessage> log(LogQuery query) {
+		return query.apply(history(getCommitName(head))).map(commit -> new CommitMessage(commit.getName(),
+				store.abbreviate(commit.getName(), COMMIT_SHORT_NAME_LENGHT), commit.getMessage(), commit.getDate()));
+	}
+
+	/**
+	 * Returns the commits reachable from the tip, newest first, reading them
+	 * as the stream is consumed. Parents of merges are walked side by side.
+	 */
+	private Stream<Commit> history(String tip) {
+		PriorityQueue<Commit> queue = new PriorityQueue<>(Comparator.comparing(Commit::getDate).reversed());
+		HashSet<String> seen = new HashSet<>();
+		Commit tipCommit = store.getCommit(tip);
+		if (tipCommit != null) {
+			seen.add(tip);
+			queue.add(tipCommit);
 		}
-		return messages;
+		return Stream.iterate(queue.poll(), Objects::nonNull, commit -> {
+			for (String parent : commit.getParents()) {
+				Commit parentCommit = seen.add(parent) ? store.getCommit(parent) : null;
+				if (parentCommit != null) {
+					queue.add(parentCommit);
+				}
+			}
+			return queue.poll();
+		});
 	}
 
 	@Override
 	public Set<String> ignoredExps() {
-		return new HashSet<String>(ignoredExps);
+		return new HashSet<String>(ignoreRules.expressions());
 	}
 
 	@Override
 	public boolean deleteIgnoredExp(String regex) {
-		return ignoredExps.remove(regex);
+		boolean removed = ignoreRules.remove(regex);
+		restartWatcher();
+		return removed;
 	}
 	
 	public Set<String> commitsSet(){
-		return commits.keySet();
+		return store.commitNames();
 	}
 }
\ No newline at end of file
@@ -0,0 +1,187 @@
+package git.tools;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Ignore rules of a repository. A rule is either a regular expression matched
+ * against the file or directory name, or, with the "glob:" prefix, a
+ * gitignore-style glob: a glob without '/' is matched against the name, a
+ * glob containing '/' against the path relative to the repository, and a
+ * trailing '/' restricts the rule to directories.
+ * <p>
+ * All rules are compiled into a few combined patterns once and recompiled
+ * only after the rule set changes.
+ */
+public class IgnoreRules {
+	public static final String GLOB_PREFIX = "glob:";
+	private static final char SEPARATOR = Tree.SEPARATOR;
+	private static final String REGEX_METACHARACTERS = "\\.[]{}()<>*+-=!?^$|";
+	private static final Pattern BACK_REFERENCE = Pattern.compile("\\\\(?:[1-9]|k<)");
+
+	private final LinkedHashSet<String> expressions = new LinkedHashSet<>();
+	private volatile Compiled compiled;
+
+	private record Compiled(Pattern fileName, Pattern directoryName, Pattern filePath, Pattern directoryPath,
+			List<Pattern> separateNames) {
+
+		boolean matches(String path, String name, boolean directory) {
+			if (matches(directory ? directoryName : fileName, name)
+					|| matches(directory ? directoryPath : filePath, path)) {
+				return true;
+			}
+			for (Pattern pattern : separateNames) {
+				if (pattern.matcher(name).matches()) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private static boolean matches(Pattern pattern, String str) {
+			return pattern != null && pattern.matcher(str).matches();
+		}
+	}
+
+	/**
+	 * Throws PatternSyntaxException for an invalid expression.
+	 */
+	public synchronized boolean add(String expression) {
+		toRegex(expression);
+		boolean added = expressions.add(expression);
+		if (added) {
+			compiled = null;
+		}
+		return added;
+	}
+
+	public synchronized boolean remove(String expression) {
+		boolean removed = expressions.remove(expression);
+		if (removed) {
+			compiled = null;
+		}
+		return removed;
+	}
+
+	public synchronized Set<String> expressions() {
+		return new LinkedHashSet<>(expressions);
+	}
+
+	public boolean isIgnored(String path, boolean directory) {
+		int separator = path.lastIndexOf(SEPARATOR);
+		return compiled().matches(path, separator < 0 ? path : path.substring(separator + 1), directory);
+	}
+
+	private Compiled compiled() {
+		Compiled result = compiled;
+		if (result == null) {
+			synchronized (this) {
+				if (compiled == null) {
+					compiled = compile();
+				}
+				result = compiled;
+			}
+		}
+		return result;
+	}
+
+	private Compiled compile() {
+		List<String> fileNames = new ArrayList<>();
+		List<String> directoryNames = new ArrayList<>();
+		List<String> filePaths = new ArrayList<>();
+		List<String> directoryPaths = new ArrayList<>();
+		List<Pattern> separateNames = new ArrayList<>();
+		for (String expression : expressions) {
+			String regex = toRegex(expression);
+			if (!expression.startsWith(GLOB_PREFIX)) {
+				if (BACK_REFERENCE.matcher(regex).find()) {
+					// group numbers would shift inside an alternation
+					separateNames.add(Pattern.compile(regex));
+				} else {
+					fileNames.add(regex);
+					directoryNames.add(regex);
+				}
+			} else {
+				String glob = expression.substring(GLOB_PREFIX.length());
+				boolean directoryOnly = glob.endsWith(String.valueOf(SEPARATOR));
+				boolean path = glob.substring(0, glob.length() - (directoryOnly ? 1 : 0)).indexOf(SEPARATOR) >= 0;
+				if (!directoryOnly) {
+					(path ? filePaths : fileNames).add(regex);
+				}
+				(path ? directoryPaths : directoryNames).add(regex);
+			}
+		}
+		return new Compiled(alternation(fileNames), alternation(directoryNames), alternation(filePaths),
+				alternation(directoryPaths), separateNames);
+	}
+
+	private static Pattern alternation(List<String> regexes) {
+		if (regexes.isEmpty()) {
+			return null;
+		}
+		StringBuilder builder = new StringBuilder();
+		for (String regex : regexes) {
+			if (builder.length() > 0) {
+				builder.append('|');
+			}
+			builder.append("(?:").append(regex).append(')');
+		}
+		return Pattern.compile(builder.toString());
+	}
+
+	private static String toRegex(String expression) {
+		String regex = expression.startsWith(GLOB_PREFIX) ? globToRegex(expression.substring(GLOB_PREFIX.length()))
+				: expression;
+		Pattern.compile(regex);
+		return regex;
+	}
+
+	private static String globToRegex(String glob) {
+		if (glob.endsWith(String.valueOf(SEPARATOR))) {
+			glob = glob.substring(0, glob.length() - 1);
+		}
+		if (glob.startsWith(String.valueOf(SEPARATOR))) {
+			glob = glob.substring(1);
+		}
+		if (glob.isEmpty()) {
+			throw new PatternSyntaxException("Empty glob", glob, 0);
+		}
+		StringBuilder regex = new StringBuilder();
+		int i = 0;
+		while (i < glob.length()) {
+			char c = glob.charAt(i);
+			if (glob.startsWith("**/", i)) {
+				regex.append("(?:.*/)?");
+				i += 3;
+			} else if (glob.startsWith("**", i)) {
+				regex.append(".*");
+				i += 2;
+			} else if (c == '*') {
+				regex.append("[^/]*");
+				i++;
+			} else if (c == '?') {
+				regex.append("[^/]");
+				i++;
+			} else if (c == '[') {
+				int end = glob.indexOf(']', i + 2);
+				if (end < 0) {
+					throw new PatternSyntaxException("Unclosed character class", glob, i);
+				}
+				String set = glob.substring(i + 1, end);
+				regex.append('[').append(set.startsWith("!") ? "^" + set.substring(1) : set).append(']');
+				i = end + 1;
+			} else {
+				if (REGEX_METACHARACTERS.indexOf(c) >= 0) {
+					regex.append('\\');
+				}
+				regex.append(c);
+				i++;
+			}
+		}
+		return regex.toString();
+	}
+}
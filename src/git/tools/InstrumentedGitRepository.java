@@ -0,0 +1,138 @@
+package git.tools;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Decorator recording every call of the wrapped repository in the metrics.
+ * While the metrics are disabled calls go straight to the repository.
+ */
+public class InstrumentedGitRepository implements GitRepository {
+	private static final long serialVersionUID = 1L;
+
+	private final GitRepository git;
+	private final transient RepositoryMetrics metrics;
+
+	public InstrumentedGitRepository(GitRepository git, RepositoryMetrics metrics) {
+		this.git = git;
+		this.metrics = metrics;
+	}
+
+	public RepositoryMetrics metrics() {
+		return metrics;
+	}
+
+	private <T> T measure(String operation, Supplier<T> call) {
+		if (!metrics.isEnabled()) {
+			return call.get();
+		}
+		RepositoryMetrics.Sample sample = metrics.start();
+		try {
+			return call.get();
+		} finally {
+			metrics.record(operation, sample);
+		}
+	}
+
+	@Override
+	public String commit(String commitMessage) {
+		return measure("commit", () -> git.commit(commitMessage));
+	}
+
+	@Override
+	public List<FileState> info() {
+		return measure("info", git::info);
+	}
+
+	@Override
+	public String createBranch(String branchName) {
+		return measure("createBranch", () -> git.createBranch(branchName));
+	}
+
+	@Override
+	public String renameBranch(String branchName, String newName) {
+		return measure("renameBranch", () -> git.renameBranch(branchName, newName));
+	}
+
+	@Override
+	public String deleteBranch(String branchName) {
+		return measure("deleteBranch", () -> git.deleteBranch(branchName));
+	}
+
+	@Override
+	public Stream<CommitMessage> log(LogQuery query) {
+		// the commits are read while the stream is consumed, so it is consumed here to be measured
+		return measure("log", () -> git.log(query).toList()).stream();
+	}
+
+	@Override
+	public List<String> branches() {
+		return measure("branches", git::branches);
+	}
+
+	@Override
+	public List<Path> commitContent(String commitName) {
+		return measure("commitContent", () -> git.commitContent(commitName));
+	}
+
+	@Override
+	public String switchTo(String name) {
+		return measure("switchTo", () -> git.switchTo(name));
+	}
+
+	@Override
+	public String merge(String name) {
+		return measure("merge", () -> git.merge(name));
+	}
+
+	@Override
+	public String abortMerge() {
+		return measure("abortMerge", git::abortMerge);
+	}
+
+	@Override
+	public List<FileDiff> diff(String from, String to) {
+		return measure("diff", () -> git.diff(from, to));
+	}
+
+	@Override
+	public List<BlameLine> blame(String path, String name) {
+		return measure("blame", () -> git.blame(path, name));
+	}
+
+	@Override
+	public String getHead() {
+		return measure("getHead", git::getHead);
+	}
+
+	@Override
+	public void save() {
+		measure("save", () -> {
+			git.save();
+			return null;
+		});
+	}
+
+	@Override
+	public String gc() {
+		return measure("gc", git::gc);
+	}
+
+	@Override
+	public String addIgnoredFileNameExp(String regex) {
+		return measure("addIgnoredFileNameExp", () -> git.addIgnoredFileNameExp(regex));
+	}
+
+	@Override
+	public Set<String> ignoredExps() {
+		return measure("ignoredExps", git::ignoredExps);
+	}
+
+	@Override
+	public boolean deleteIgnoredExp(String regex) {
+		return measure("deleteIgnoredExp", () -> git.deleteIgnoredExp(regex));
+	}
+}
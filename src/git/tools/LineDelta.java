@@ -0,0 +1,180 @@
+package git.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Line based delta of a file version against a base version: a sequence of
+ * COPY (range of base lines) and INSERT (new bytes) operations. Lines are
+ * byte ranges ending after '\n' (the last one possibly without it), so the
+ * content is reproduced byte for byte whatever its encoding.
+ */
+public class LineDelta {
+	private static final byte LINE_SEPARATOR = '\n';
+	private static final byte COPY = 1;
+	private static final byte INSERT = 2;
+	private static final int MAX_CANDIDATES = 8;
+
+	private final List<Operation> operations;
+
+	private record Operation(byte type, int start, int count, byte[] data) {
+	}
+
+	private LineDelta(List<Operation> operations) {
+		this.operations = operations;
+	}
+
+	public static LineDelta of(byte[] base, byte[] target) {
+		int[] baseLines = lineBounds(base);
+		int[] targetLines = lineBounds(target);
+		int baseCount = baseLines.length - 1;
+		int targetCount = targetLines.length - 1;
+		HashMap<ByteBuffer, List<Integer>> positions = new HashMap<>();
+		for (int i = 0; i < baseCount; i++) {
+			positions.computeIfAbsent(line(base, baseLines, i), k -> new ArrayList<>(1)).add(i);
+		}
+		List<Operation> operations = new ArrayList<>();
+		int insertedFrom = -1;
+		int expected = 0;
+		int i = 0;
+		while (i < targetCount) {
+			int bestStart = -1;
+			int bestCount = 0;
+			if (expected < baseCount && lineEquals(base, baseLines, expected, target, targetLines, i)) {
+				bestStart = expected;
+				bestCount = matchLength(base, baseLines, expected, target, targetLines, i);
+			}
+			List<Integer> candidates = positions.get(line(target, targetLines, i));
+			if (candidates != null) {
+				for (int c = 0; c < candidates.size() && c < MAX_CANDIDATES; c++) {
+					int start = candidates.get(c);
+					int count = start == bestStart ? bestCount
+							: matchLength(base, baseLines, start, target, targetLines, i);
+					if (count > bestCount) {
+						bestStart = start;
+						bestCount = count;
+					}
+				}
+			}
+			if (bestCount == 0) {
+				if (insertedFrom < 0) {
+					insertedFrom = i;
+				}
+				i++;
+			} else {
+				if (insertedFrom >= 0) {
+					operations.add(insert(target, targetLines, insertedFrom, i));
+					insertedFrom = -1;
+				}
+				operations.add(new Operation(COPY, bestStart, bestCount, null));
+				i += bestCount;
+				expected = bestStart + bestCount;
+			}
+		}
+		if (insertedFrom >= 0) {
+			operations.add(insert(target, targetLines, insertedFrom, targetCount));
+		}
+		return new LineDelta(operations);
+	}
+
+	/**
+	 * Returns the offsets where the lines start followed by the data length.
+	 */
+	static int[] lineBounds(byte[] data) {
+		int count = 0;
+		for (byte b : data) {
+			if (b == LINE_SEPARATOR) {
+				count++;
+			}
+		}
+		boolean unterminated = data.length > 0 && data[data.length - 1] != LINE_SEPARATOR;
+		int[] bounds = new int[count + (unterminated ? 1 : 0) + 1];
+		int line = 1;
+		for (int i = 0; i < data.length; i++) {
+			if (data[i] == LINE_SEPARATOR) {
+				bounds[line++] = i + 1;
+			}
+		}
+		if (unterminated) {
+			bounds[line] = data.length;
+		}
+		return bounds;
+	}
+
+	private static ByteBuffer line(byte[] data, int[] bounds, int line) {
+		return ByteBuffer.wrap(data, bounds[line], bounds[line + 1] - bounds[line]);
+	}
+
+	private static boolean lineEquals(byte[] base, int[] baseLines, int baseLine, byte[] target, int[] targetLines,
+			int targetLine) {
+		return Arrays.equals(base, baseLines[baseLine], baseLines[baseLine + 1], target, targetLines[targetLine],
+				targetLines[targetLine + 1]);
+	}
+
+	private static int matchLength(byte[] base, int[] baseLines, int baseStart, byte[] target, int[] targetLines,
+			int targetStart) {
+		int count = 0;
+		while (baseStart + count < baseLines.length - 1 && targetStart + count < targetLines.length - 1
+				&& lineEquals(base, baseLines, baseStart + count, target, targetLines, targetStart + count)) {
+			count++;
+		}
+		return count;
+	}
+
+	private static Operation insert(byte[] target, int[] targetLines, int from, int to) {
+		return new Operation(INSERT, 0, to - from, Arrays.copyOfRange(target, targetLines[from], targetLines[to]));
+	}
+
+	public byte[] apply(byte[] base) {
+		int[] baseLines = lineBounds(base);
+		ByteArrayOutputStream result = new ByteArrayOutputStream(base.length);
+		for (Operation operation : operations) {
+			if (operation.type() == COPY) {
+				int from = baseLines[operation.start()];
+				result.write(base, from, baseLines[operation.start() + operation.count()] - from);
+			} else {
+				result.writeBytes(operation.data());
+			}
+		}
+		return result.toByteArray();
+	}
+
+	public void writeTo(DataOutput output) throws IOException {
+		output.writeInt(operations.size());
+		for (Operation operation : operations) {
+			output.writeByte(operation.type());
+			if (operation.type() == COPY) {
+				output.writeInt(operation.start());
+				output.writeInt(operation.count());
+			} else {
+				output.writeInt(operation.data().length);
+				output.write(operation.data());
+			}
+		}
+	}
+
+	public static LineDelta readFrom(DataInput input) throws IOException {
+		int size = input.readInt();
+		List<Operation> operations = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			byte type = input.readByte();
+			if (type == COPY) {
+				operations.add(new Operation(COPY, input.readInt(), input.readInt(), null));
+			} else if (type == INSERT) {
+				byte[] data = new byte[input.readInt()];
+				input.readFully(data);
+				operations.add(new Operation(INSERT, 0, 0, data));
+			} else {
+				throw new IOException("Corrupted delta: unknown operation " + type);
+			}
+		}
+		return new LineDelta(operations);
+	}
+}
@@ -0,0 +1,346 @@
+package git.tools;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Line diff of two file versions with Myers' O(ND) algorithm in its linear
+ * space form. Lines are interned to ints first, so the algorithm compares
+ * ints instead of bytes. Lines that occur in only one of the versions can't
+ * be common to both and are marked changed up front. The common prefix and
+ * suffix are cut before every step. Files with few common lines are then
+ * compared in time close to linear, even when they are very different.
+ * <p>
+ * As in git, a search whose cost passes the square root of the lengths, at
+ * least MIN_COST_LIMIT, is cut at the point furthest from the start. That
+ * bounds the time on many changes among frequent lines, at the price of a
+ * diff that may not be minimal.
+ */
+public class LineDiff {
+	private static final int BINARY_CHECK_LENGTH = 8000;
+	private static final String NO_NEWLINE = "\\ No newline at end of file";
+	private static final int MIN_COST_LIMIT = 256;
+
+	private final byte[] oldData;
+	private final byte[] newData;
+	private final int[] oldLines;
+	private final int[] newLines;
+	private final List<Edit> edits;
+
+	/**
+	 * Replaced line ranges [oldStart, oldEnd) and [newStart, newEnd), either of
+	 * them possibly empty.
+	 */
+	public record Edit(int oldStart, int oldEnd, int newStart, int newEnd) {
+	}
+
+	private LineDiff(byte[] oldData, byte[] newData, int[] oldLines, int[] newLines, List<Edit> edits) {
+		this.oldData = oldData;
+		this.newData = newData;
+		this.oldLines = oldLines;
+		this.newLines = newLines;
+		this.edits = edits;
+	}
+
+	public static LineDiff of(byte[] oldData, byte[] newData) {
+		int[] oldLines = LineDelta.lineBounds(oldData);
+		int[] newLines = LineDelta.lineBounds(newData);
+		HashMap<ByteBuffer, Integer> ids = new HashMap<>();
+		int[] a = intern(oldData, oldLines, ids);
+		int[] b = intern(newData, newLines, ids);
+		int[] oldCounts = new int[ids.size()];
+		int[] newCounts = new int[ids.size()];
+		for (int line : a) {
+			oldCounts[line]++;
+		}
+		for (int line : b) {
+			newCounts[line]++;
+		}
+		boolean[] deleted = new boolean[a.length];
+		boolean[] inserted = new boolean[b.length];
+		int[] oldIndexes = common(a, newCounts, deleted);
+		int[] newIndexes = common(b, oldCounts, inserted);
+		new Myers(select(a, oldIndexes), select(b, newIndexes), oldIndexes, newIndexes, deleted, inserted)
+				.compare(0, oldIndexes.length, 0, newIndexes.length);
+		return new LineDiff(oldData, newData, oldLines, newLines, edits(deleted, inserted));
+	}
+
+	private static int[] intern(byte[] data, int[] bounds, HashMap<ByteBuffer, Integer> ids) {
+		int[] lines = new int[bounds.length - 1];
+		for (int i = 0; i < lines.length; i++) {
+			lines[i] = ids.computeIfAbsent(ByteBuffer.wrap(data, bounds[i], bounds[i + 1] - bounds[i]),
+					line -> ids.size());
+		}
+		return lines;
+	}
+
+	/**
+	 * Returns the indexes of the lines also found on the other side, marking
+	 * the others changed.
+	 */
+	private static int[] common(int[] lines, int[] otherCounts, boolean[] changed) {
+		int[] indexes = new int[lines.length];
+		int count = 0;
+		for (int i = 0; i < lines.length; i++) {
+			if (otherCounts[lines[i]] > 0) {
+				indexes[count++] = i;
+			} else {
+				changed[i] = true;
+			}
+		}
+		return Arrays.copyOf(indexes, count);
+	}
+
+	private static int[] select(int[] lines, int[] indexes) {
+		int[] selected = new int[indexes.length];
+		for (int i = 0; i < indexes.length; i++) {
+			selected[i] = lines[indexes[i]];
+		}
+		return selected;
+	}
+
+	private static List<Edit> edits(boolean[] deleted, boolean[] inserted) {
+		List<Edit> edits = new ArrayList<>();
+		int i = 0;
+		int j = 0;
+		while (i < deleted.length || j < inserted.length) {
+			if (i < deleted.length && j < inserted.length && !deleted[i] && !inserted[j]) {
+				i++;
+				j++;
+				continue;
+			}
+			int oldStart = i;
+			int newStart = j;
+			while (i < deleted.length && deleted[i]) {
+				i++;
+			}
+			while (j < inserted.length && inserted[j]) {
+				j++;
+			}
+			edits.add(new Edit(oldStart, i, newStart, j));
+		}
+		return edits;
+	}
+
+	/**
+	 * Linear space Myers: finds the middle snake of the shortest edit script,
+	 * then compares the parts before and after it.
+	 */
+	private static class Myers {
+		private final int[] a;
+		private final int[] b;
+		private final int[] oldIndexes;
+		private final int[] newIndexes;
+		private final boolean[] deleted;
+		private final boolean[] inserted;
+		private final int[] forward;
+		private final int[] backward;
+		private final int offset;
+
+		Myers(int[] a, int[] b, int[] oldIndexes, int[] newIndexes, boolean[] deleted, boolean[] inserted) {
+			this.a = a;
+			this.b = b;
+			this.oldIndexes = oldIndexes;
+			this.newIndexes = newIndexes;
+			this.deleted = deleted;
+			this.inserted = inserted;
+			this.offset = a.length + b.length + 1;
+			this.forward = new int[2 * offset + 1];
+			this.backward = new int[2 * offset + 1];
+		}
+
+		void compare(int aLo, int aHi, int bLo, int bHi) {
+			while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+				aLo++;
+				bLo++;
+			}
+			while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+				aHi--;
+				bHi--;
+			}
+			if (aLo == aHi) {
+				for (int j = bLo; j < bHi; j++) {
+					inserted[newIndexes[j]] = true;
+				}
+			} else if (bLo == bHi) {
+				for (int i = aLo; i < aHi; i++) {
+					deleted[oldIndexes[i]] = true;
+				}
+			} else {
+				// both parts cost less than the whole, since the common ends are cut
+				int[] snake = middleSnake(aLo, aHi, bLo, bHi);
+				compare(aLo, snake[0], bLo, snake[1]);
+				compare(snake[2], aHi, snake[3], bHi);
+			}
+		}
+
+		/**
+		 * Returns the start and end points (x, y, x, y) of a snake on a shortest
+		 * edit path. Diagonal k holds the points with x - y = k; the backward
+		 * search runs from the end on diagonals of the reversed sequences.
+		 */
+		private int[] middleSnake(int aLo, int aHi, int bLo, int bHi) {
+			int n = aHi - aLo;
+			int m = bHi - bLo;
+			int delta = n - m;
+			boolean odd = (delta & 1) != 0;
+			int costLimit = Math.max(MIN_COST_LIMIT, (int) Math.sqrt(n + m));
+			forward[offset + 1] = 0;
+			backward[offset + 1] = 0;
+			for (int d = 0; d <= (n + m + 1) / 2; d++) {
+				if (d > costLimit) {
+					return furthestPoint(aLo, bLo, n, m, d - 1);
+				}
+				for (int k = -d; k <= d; k += 2) {
+					int x = k == -d || k != d && forward[offset + k - 1] < forward[offset + k + 1]
+							? forward[offset + k + 1]
+							: forward[offset + k - 1] + 1;
+					int y = x - k;
+					int startX = x;
+					int startY = y;
+					while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+						x++;
+						y++;
+					}
+					forward[offset + k] = x;
+					int backwardK = delta - k;
+					if (odd && backwardK >= -(d - 1) && backwardK <= d - 1 && x <= n && y <= m
+							&& x + backward[offset + backwardK] >= n) {
+						return new int[] { aLo + startX, bLo + startY, aLo + x, bLo + y };
+					}
+				}
+				for (int k = -d; k <= d; k += 2) {
+					int u = k == -d || k != d && backward[offset + k - 1] < backward[offset + k + 1]
+							? backward[offset + k + 1]
+							: backward[offset + k - 1] + 1;
+					int v = u - k;
+					int startU = u;
+					int startV = v;
+					while (u < n && v < m && a[aHi - 1 - u] == b[bHi - 1 - v]) {
+						u++;
+						v++;
+					}
+					backward[offset + k] = u;
+					int forwardK = delta - k;
+					if (!odd && forwardK >= -d && forwardK <= d && u <= n && v <= m
+							&& u + forward[offset + forwardK] >= n) {
+						return new int[] { aHi - u, bHi - v, aHi - startU, bHi - startV };
+					}
+				}
+			}
+			throw new IllegalStateException("No middle snake found");
+		}
+
+		/**
+		 * Returns, as an empty snake, the point inside the grid reached by the
+		 * forward search of cost d that is furthest from the start.
+		 */
+		private int[] furthestPoint(int aLo, int bLo, int n, int m, int d) {
+			int bestX = 0;
+			int bestY = 0;
+			for (int k = -d; k <= d; k += 2) {
+				int x = forward[offset + k];
+				int y = x - k;
+				if (x <= n && y >= 0 && y <= m && x + y > bestX + bestY && x + y < n + m) {
+					bestX = x;
+					bestY = y;
+				}
+			}
+			return new int[] { aLo + bestX, bLo + bestY, aLo + bestX, bLo + bestY };
+		}
+	}
+
+	public List<Edit> edits() {
+		return edits;
+	}
+
+	public int insertions() {
+		return edits.stream().mapToInt(edit -> edit.newEnd() - edit.newStart()).sum();
+	}
+
+	public int deletions() {
+		return edits.stream().mapToInt(edit -> edit.oldEnd() - edit.oldStart()).sum();
+	}
+
+	/**
+	 * Returns the hunks of the unified diff format with the given number of
+	 * context lines, after "---" and "+++" header lines naming the versions.
+	 */
+	public List<String> unified(String oldName, String newName, int context) {
+		List<String> lines = new ArrayList<>();
+		if (edits.isEmpty()) {
+			return lines;
+		}
+		lines.add("--- " + oldName);
+		lines.add("+++ " + newName);
+		int first = 0;
+		while (first < edits.size()) {
+			int last = first;
+			while (last + 1 < edits.size()
+					&& edits.get(last + 1).oldStart() - edits.get(last).oldEnd() <= 2 * context) {
+				last++;
+			}
+			hunk(lines, first, last, context);
+			first = last + 1;
+		}
+		return lines;
+	}
+
+	private void hunk(List<String> lines, int first, int last, int context) {
+		int oldCount = oldLines.length - 1;
+		int newCount = newLines.length - 1;
+		int oldStart = Math.max(0, edits.get(first).oldStart() - context);
+		int newStart = Math.max(0, edits.get(first).newStart() - context);
+		int oldEnd = Math.min(oldCount, edits.get(last).oldEnd() + context);
+		int newEnd = Math.min(newCount, edits.get(last).newEnd() + context);
+		lines.add(String.format("@@ -%s +%s @@", range(oldStart, oldEnd), range(newStart, newEnd)));
+		int i = oldStart;
+		for (int e = first; e <= last; e++) {
+			Edit edit = edits.get(e);
+			for (; i < edit.oldStart(); i++) {
+				line(lines, ' ', oldData, oldLines, i);
+			}
+			for (; i < edit.oldEnd(); i++) {
+				line(lines, '-', oldData, oldLines, i);
+			}
+			for (int j = edit.newStart(); j < edit.newEnd(); j++) {
+				line(lines, '+', newData, newLines, j);
+			}
+		}
+		for (; i < oldEnd; i++) {
+			line(lines, ' ', oldData, oldLines, i);
+		}
+	}
+
+	private static String range(int start, int end) {
+		// an empty range names the line before it
+		return end - start == 1 ? String.valueOf(start + 1)
+				: String.format("%d,%d", end == start ? start : start + 1, end - start);
+	}
+
+	private static void line(List<String> lines, char prefix, byte[] data, int[] bounds, int line) {
+		int start = bounds[line];
+		int end = bounds[line + 1];
+		boolean terminated = end > start && data[end - 1] == '\n';
+		lines.add(prefix + new String(data, start, end - start - (terminated ? 1 : 0), StandardCharsets.UTF_8));
+		if (!terminated) {
+			lines.add(NO_NEWLINE);
+		}
+	}
+
+	/**
+	 * Tells binary content by a zero byte near the start, as git does.
+	 */
+	public static boolean isBinary(byte[] data) {
+		for (int i = 0; i < data.length && i < BINARY_CHECK_LENGTH; i++) {
+			if (data[i] == 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,137 @@
+package git.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Three-way line merge in the way of diff3. Both versions are diffed against
+ * the base. Edits of the two sides that overlap or touch form one chunk;
+ * every other stretch of the base is taken as is. A chunk changed on one
+ * side only takes that side, a chunk changed alike on both sides is taken
+ * once, anything else is a conflict written between markers.
+ */
+public class LineMerge {
+	private static final String OURS_MARKER = "<<<<<<< ";
+	private static final String SEPARATOR_MARKER = "=======";
+	private static final String THEIRS_MARKER = ">>>>>>> ";
+
+	private final byte[] base;
+	private final byte[] ours;
+	private final byte[] theirs;
+	private final int[] baseLines;
+	private final int[] ourLines;
+	private final int[] theirLines;
+	private final ByteArrayOutputStream result;
+	private int conflicts;
+
+	public record Result(byte[] data, int conflicts) {
+	}
+
+	private LineMerge(byte[] base, byte[] ours, byte[] theirs) {
+		this.base = base;
+		this.ours = ours;
+		this.theirs = theirs;
+		this.baseLines = LineDelta.lineBounds(base);
+		this.ourLines = LineDelta.lineBounds(ours);
+		this.theirLines = LineDelta.lineBounds(theirs);
+		this.result = new ByteArrayOutputStream(Math.max(ours.length, theirs.length));
+	}
+
+	public static Result merge(byte[] base, byte[] ours, byte[] theirs, String ourLabel, String theirLabel) {
+		LineMerge merge = new LineMerge(base, ours, theirs);
+		merge.merge(LineDiff.of(base, ours).edits(), LineDiff.of(base, theirs).edits(), ourLabel, theirLabel);
+		return new Result(merge.result.toByteArray(), merge.conflicts);
+	}
+
+	private void merge(List<LineDiff.Edit> ourEdits, List<LineDiff.Edit> theirEdits, String ourLabel,
+			String theirLabel) {
+		int baseLine = 0;
+		int i = 0;
+		int j = 0;
+		while (i < ourEdits.size() || j < theirEdits.size()) {
+			boolean oursFirst = j == theirEdits.size()
+					|| i < ourEdits.size() && ourEdits.get(i).oldStart() <= theirEdits.get(j).oldStart();
+			int start = (oursFirst ? ourEdits.get(i) : theirEdits.get(j)).oldStart();
+			int end = start;
+			int ourFirst = i;
+			int theirFirst = j;
+			// edits starting within or right at the end of the chunk join it
+			boolean grown = true;
+			while (grown) {
+				grown = false;
+				if (i < ourEdits.size() && ourEdits.get(i).oldStart() <= end) {
+					end = Math.max(end, ourEdits.get(i++).oldEnd());
+					grown = true;
+				}
+				if (j < theirEdits.size() && theirEdits.get(j).oldStart() <= end) {
+					end = Math.max(end, theirEdits.get(j++).oldEnd());
+					grown = true;
+				}
+			}
+			copy(base, baseLines, baseLine, start);
+			chunk(start, end, ourEdits.subList(ourFirst, i), theirEdits.subList(theirFirst, j), ourLabel,
+					theirLabel);
+			baseLine = end;
+		}
+		copy(base, baseLines, baseLine, baseLines.length - 1);
+	}
+
+	private void chunk(int start, int end, List<LineDiff.Edit> ourEdits, List<LineDiff.Edit> theirEdits,
+			String ourLabel, String theirLabel) {
+		if (theirEdits.isEmpty()) {
+			copy(ours, ourLines, newStart(start, ourEdits), newEnd(end, ourEdits));
+			return;
+		}
+		if (ourEdits.isEmpty()) {
+			copy(theirs, theirLines, newStart(start, theirEdits), newEnd(end, theirEdits));
+			return;
+		}
+		int ourFrom = ourLines[newStart(start, ourEdits)];
+		int ourTo = ourLines[newEnd(end, ourEdits)];
+		int theirFrom = theirLines[newStart(start, theirEdits)];
+		int theirTo = theirLines[newEnd(end, theirEdits)];
+		if (Arrays.equals(ours, ourFrom, ourTo, theirs, theirFrom, theirTo)) {
+			result.write(ours, ourFrom, ourTo - ourFrom);
+			return;
+		}
+		conflicts++;
+		marker(OURS_MARKER + ourLabel);
+		result.write(ours, ourFrom, ourTo - ourFrom);
+		endLine(ours, ourFrom, ourTo);
+		marker(SEPARATOR_MARKER);
+		result.write(theirs, theirFrom, theirTo - theirFrom);
+		endLine(theirs, theirFrom, theirTo);
+		marker(THEIRS_MARKER + theirLabel);
+	}
+
+	/**
+	 * Maps the start of the chunk in the base to the side, which the first
+	 * edit of the side in the chunk shifts by the same amount as its start.
+	 */
+	private static int newStart(int start, List<LineDiff.Edit> edits) {
+		LineDiff.Edit first = edits.get(0);
+		return first.newStart() - (first.oldStart() - start);
+	}
+
+	private static int newEnd(int end, List<LineDiff.Edit> edits) {
+		LineDiff.Edit last = edits.get(edits.size() - 1);
+		return last.newEnd() + (end - last.oldEnd());
+	}
+
+	private void copy(byte[] data, int[] bounds, int fromLine, int toLine) {
+		result.write(data, bounds[fromLine], bounds[toLine] - bounds[fromLine]);
+	}
+
+	private void endLine(byte[] data, int from, int to) {
+		// a side ending without a newline must not run into the next marker
+		if (to > from && data[to - 1] != '\n') {
+			result.write('\n');
+		}
+	}
+
+	private void marker(String line) {
+		result.writeBytes((line + "\n").getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,68 @@
+package git.tools;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Selection of the commits log(LogQuery) returns, newest first: commits
+ * dated from since (inclusive) to until (exclusive) whose message matches
+ * the grep regular expression, of which the first skip are left out and at
+ * most limit are returned. Null bounds and a null expression select
+ * everything.
+ * <p>
+ * The history is walked from the head and dates are assumed to decrease
+ * along it, so walking stops at the first commit older than since.
+ */
+public record LogQuery(long skip, long limit, LocalDateTime since, LocalDateTime until, String grep)
+		implements Serializable {
+	public static final LogQuery ALL = new LogQuery(0, Long.MAX_VALUE, null, null, null);
+
+	public LogQuery {
+		if (skip < 0 || limit < 0) {
+			throw new IllegalArgumentException(String.format("Negative skip %d or limit %d", skip, limit));
+		}
+		if (grep != null) {
+			Pattern.compile(grep);
+		}
+	}
+
+	public LogQuery skip(long skip) {
+		return new LogQuery(skip, limit, since, until, grep);
+	}
+
+	public LogQuery limit(long limit) {
+		return new LogQuery(skip, limit, since, until, grep);
+	}
+
+	public LogQuery since(LocalDateTime since) {
+		return new LogQuery(skip, limit, since, until, grep);
+	}
+
+	public LogQuery until(LocalDateTime until) {
+		return new LogQuery(skip, limit, since, until, grep);
+	}
+
+	public LogQuery grep(String grep) {
+		return new LogQuery(skip, limit, since, until, grep);
+	}
+
+	/**
+	 * Applies the query to commits ordered from the newest, without reading
+	 * more of them than it needs.
+	 */
+	Stream<Commit> apply(Stream<Commit> commits) {
+		if (until != null) {
+			commits = commits.dropWhile(commit -> !commit.getDate().isBefore(until));
+		}
+		if (since != null) {
+			commits = commits.takeWhile(commit -> !commit.getDate().isBefore(since));
+		}
+		if (grep != null) {
+			Pattern pattern = Pattern.compile(grep);
+			commits = commits.filter(commit -> pattern.matcher(commit.getMessage()).find());
+		}
+		return commits.skip(skip).limit(limit);
+	}
+}
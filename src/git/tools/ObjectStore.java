@@ -0,0 +1,633 @@
+package git.tools;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.Deflater;
+
+import git.utills.ByteUtills;
+import git.utills.CountingOutputStream;
+
+import static git.utills.ByteUtills.*;
+
+/**
+ * Objects are appended to the log file and located through a separate index
+ * file of (type, id, offset, length) entries. Nothing is read at open time:
+ * the index is loaded on the first lookup and payloads are decoded from a
+ * memory-mapped view of the log only when an object is requested, with a
+ * bounded cache of the recently decoded ones. Records are compressed as set
+ * by setCompression(). Commit names are also kept sorted, so a commit can be
+ * found by any prefix of its name in logarithmic time.
+ * <p>
+ * Lookups may run concurrently with each other; adding objects, flush()
+ * and compact() need exclusive access.
+ */
+public class ObjectStore {
+	private static final int HASH_BUFFER_SIZE = 64 * 1024;
+	private static final byte BLOB = 1;
+	private static final byte COMMIT = 2;
+	private static final byte DELTA = 4;
+	private static final byte TREE = 5;
+	private static final int MAX_DELTA_CHAIN = 16;
+	private static final String BLOB_HEADER = "blob";
+	static final String TREE_HEADER = "tree";
+	private static final int BLOB_CACHE_SIZE = 256;
+	private static final int COMMIT_CACHE_SIZE = 1024;
+	private static final int TREE_CACHE_SIZE = 1024;
+	private static final int SEGMENT_SHIFT = 30;
+	private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+	private static final ThreadLocal<ByteBuffer> HASH_BUFFER = ThreadLocal
+			.withInitial(() -> ByteBuffer.allocateDirect(HASH_BUFFER_SIZE));
+
+	private Path log;
+	private Path indexFile;
+	private long logLength;
+	private long indexLength;
+
+	private Compression compression = Compression.deflate(Deflater.DEFAULT_COMPRESSION);
+	private RepositoryMetrics metrics = RepositoryMetrics.DISABLED;
+	private volatile HashMap<String, Location> index;
+	private volatile MappedByteBuffer[] segments;
+	private volatile TreeSet<String> sortedCommitNames;
+	private final Map<String, byte[]> blobCache = lruCache(BLOB_CACHE_SIZE);
+	private final Map<String, Commit> commitCache = lruCache(COMMIT_CACHE_SIZE);
+	private final Map<String, Tree> treeCache = lruCache(TREE_CACHE_SIZE);
+
+	private final LinkedHashMap<String, PendingBlob> unsavedBlobs = new LinkedHashMap<>();
+	private final LinkedHashMap<String, Tree> unsavedTrees = new LinkedHashMap<>();
+	private final LinkedHashMap<String, Commit> unsavedCommits = new LinkedHashMap<>();
+
+	private record Location(byte type, long offset, int length, int depth) {
+	}
+
+	private record PendingBlob(byte[] data, String base, int depth) {
+	}
+
+	public ObjectStore(Path log, Path indexFile) {
+		this(log, indexFile, 0, 0);
+	}
+
+	private ObjectStore(Path log, Path indexFile, long logLength, long indexLength) {
+		this.log = log;
+		this.indexFile = indexFile;
+		this.logLength = logLength;
+		this.indexLength = indexLength;
+	}
+
+	public static ObjectStore open(Path log, Path indexFile, long logLength, long indexLength) {
+		return new ObjectStore(log, indexFile, logLength, indexLength);
+	}
+
+	public void setMetrics(RepositoryMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Sets the compression of the objects written from now on, objects already
+	 * in the log keep theirs.
+	 */
+	public void setCompression(Compression compression) {
+		this.compression = compression;
+	}
+
+	public long logLength() {
+		return logLength;
+	}
+
+	public long indexLength() {
+		return indexLength;
+	}
+
+	public String putBlob(byte[] data) {
+		return putBlob(data, null);
+	}
+
+	/**
+	 * Stores the content unless it is already present. A known previous version
+	 * of the same file may be given as a base, the content is then saved as a
+	 * line delta against it as long as the reconstruction chain stays short.
+	 */
+	public String putBlob(byte[] data, String base) {
+		String id = hash(data);
+		if (!containsBlob(id)) {
+			int baseDepth = base == null || base.equals(id) ? MAX_DELTA_CHAIN : blobDepth(base);
+			unsavedBlobs.put(id, baseDepth < MAX_DELTA_CHAIN ? new PendingBlob(data, base, baseDepth + 1)
+					: new PendingBlob(data, null, 0));
+		}
+		return id;
+	}
+
+	public byte[] getBlob(String id) {
+		PendingBlob pending = unsavedBlobs.get(id);
+		byte[] data = pending != null ? pending.data() : blobCache.get(id);
+		if (data == null) {
+			Location location = index().get(id);
+			if (location != null && location.type() == BLOB) {
+				data = decode(location, input -> input.readAllBytes());
+			} else if (location != null && location.type() == DELTA) {
+				data = decode(location, input -> {
+					String base = readString(input);
+					return LineDelta.readFrom(input).apply(getBlob(base));
+				});
+			}
+			if (data != null) {
+				blobCache.put(id, data);
+			}
+		}
+		return data;
+	}
+
+	/**
+	 * Returns the content as a read-only buffer. A blob stored in full and
+	 * uncompressed is not copied: the buffer is a view of the memory-mapped
+	 * log, so writing it to a channel moves the bytes from the page cache
+	 * without a trip through the heap. Only a record crossing a boundary of
+	 * the mapped segments is read into a copy. Every call returns a buffer of
+	 * its own.
+	 */
+	public ByteBuffer getBlobContent(String id) {
+		Location location = unsavedBlobs.containsKey(id) ? null : index().get(id);
+		if (location != null && location.type() == BLOB) {
+			try {
+				ByteBuffer stored = Compression.storedData(record(location));
+				if (stored != null) {
+					metrics.countRead(location.length());
+					return stored.asReadOnlyBuffer();
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		byte[] data = getBlob(id);
+		return data != null ? ByteBuffer.wrap(data).asReadOnlyBuffer() : null;
+	}
+
+	public boolean containsBlob(String id) {
+		Location location = index().get(id);
+		return unsavedBlobs.containsKey(id)
+				|| location != null && (location.type() == BLOB || location.type() == DELTA);
+	}
+
+	/**
+	 * Returns the id of the blob a stored delta is based on, or null for a blob
+	 * stored in full.
+	 */
+	public String blobBase(String id) {
+		PendingBlob pending = unsavedBlobs.get(id);
+		if (pending != null) {
+			return pending.depth() > 0 ? pending.base() : null;
+		}
+		Location location = index().get(id);
+		return location != null && location.type() == DELTA ? decode(location, ByteUtills::readString) : null;
+	}
+
+	private int blobDepth(String id) {
+		PendingBlob pending = unsavedBlobs.get(id);
+		if (pending != null) {
+			return pending.depth();
+		}
+		Location location = index().get(id);
+		return location != null ? location.depth() : MAX_DELTA_CHAIN;
+	}
+
+	public String putTree(Tree tree) {
+		String id = tree.id();
+		if (!containsTree(id)) {
+			unsavedTrees.put(id, tree);
+		}
+		return id;
+	}
+
+	public Tree getTree(String id) {
+		Tree tree = unsavedTrees.get(id);
+		if (tree == null) {
+			tree = treeCache.get(id);
+		}
+		if (tree == null) {
+			Location location = index().get(id);
+			if (location != null && location.type() == TREE) {
+				tree = decode(location, Tree::readFrom);
+				treeCache.put(id, tree);
+			}
+		}
+		return tree;
+	}
+
+	public boolean containsTree(String id) {
+		Location location = index().get(id);
+		return unsavedTrees.containsKey(id) || location != null && location.type() == TREE;
+	}
+
+	public void putCommit(String name, Commit commit) {
+		unsavedCommits.put(name, commit);
+		if (sortedCommitNames != null) {
+			sortedCommitNames.add(name);
+		}
+	}
+
+	public Commit getCommit(String name) {
+		if (name == null) {
+			return null;
+		}
+		Commit commit = unsavedCommits.get(name);
+		if (commit == null) {
+			commit = commitCache.get(name);
+		}
+		if (commit == null) {
+			Location location = index().get(name);
+			if (location != null && location.type() == COMMIT) {
+				commit = decode(location, Commit::readFrom);
+				commitCache.put(name, commit);
+			}
+		}
+		return commit;
+	}
+
+	public Set<String> commitNames() {
+		return new TreeSet<>(sortedCommitNames());
+	}
+
+	/**
+	 * Returns the names of the commits starting with the prefix in order, at
+	 * most limit of them.
+	 */
+	public List<String> commitsByPrefix(String prefix, int limit) {
+		List<String> names = new ArrayList<>();
+		for (String name : sortedCommitNames().tailSet(prefix)) {
+			if (names.size() == limit || !name.startsWith(prefix)) {
+				break;
+			}
+			names.add(name);
+		}
+		return names;
+	}
+
+	/**
+	 * Returns the shortest prefix of the commit name, of at least minLength
+	 * characters, that no other commit name starts with.
+	 */
+	public String abbreviate(String name, int minLength) {
+		NavigableSet<String> names = sortedCommitNames();
+		String lower = names.lower(name);
+		if (lower != null && name.startsWith(lower)) {
+			// the short key of the same commit, saved before commits were keyed by full names
+			lower = names.lower(lower);
+		}
+		int length = Math.max(minLength, Math.max(commonPrefix(name, lower),
+				commonPrefix(name, names.higher(name))) + 1);
+		return name.substring(0, Math.min(length, name.length()));
+	}
+
+	private static int commonPrefix(String name, String other) {
+		if (other == null) {
+			return 0;
+		}
+		int length = 0;
+		while (length < name.length() && length < other.length() && name.charAt(length) == other.charAt(length)) {
+			length++;
+		}
+		return length;
+	}
+
+	private TreeSet<String> sortedCommitNames() {
+		TreeSet<String> result = sortedCommitNames;
+		if (result == null) {
+			synchronized (this) {
+				if (sortedCommitNames == null) {
+					TreeSet<String> names = new TreeSet<>(unsavedCommits.keySet());
+					index().forEach((id, location) -> {
+						if (location.type() == COMMIT) {
+							names.add(id);
+						}
+					});
+					sortedCommitNames = names;
+				}
+				result = sortedCommitNames;
+			}
+		}
+		return result;
+	}
+
+	public boolean hasUnsavedObjects() {
+		return !unsavedBlobs.isEmpty() || !unsavedTrees.isEmpty() || !unsavedCommits.isEmpty();
+	}
+
+	/**
+	 * Appends the objects created since the previous flush to the log and their
+	 * locations to the index. Anything past the last flushed lengths is a torn
+	 * write of an interrupted save and is cut off first.
+	 */
+	public void flush() throws IOException {
+		if (!hasUnsavedObjects()) {
+			return;
+		}
+		index();
+		truncate(log, logLength);
+		truncate(indexFile, indexLength);
+		try (CountingOutputStream logBytes = new CountingOutputStream(
+				new BufferedOutputStream(new FileOutputStream(log.toFile(), true)), logLength);
+				DataOutputStream logOutput = new DataOutputStream(logBytes);
+				DataOutputStream indexOutput = new DataOutputStream(
+						new BufferedOutputStream(new FileOutputStream(indexFile.toFile(), true)))) {
+			for (Map.Entry<String, PendingBlob> blob : unsavedBlobs.entrySet()) {
+				writeBlob(logOutput, logBytes, indexOutput, blob.getKey(), blob.getValue());
+			}
+			for (Map.Entry<String, Tree> tree : unsavedTrees.entrySet()) {
+				writeRecord(logOutput, logBytes, indexOutput, TREE, tree.getKey(), 0, toBytes(tree.getValue()::writeTo));
+			}
+			for (Map.Entry<String, Commit> commit : unsavedCommits.entrySet()) {
+				writeRecord(logOutput, logBytes, indexOutput, COMMIT, commit.getKey(), 0,
+						toBytes(commit.getValue()::writeTo));
+			}
+		}
+		unsavedBlobs.clear();
+		unsavedTrees.clear();
+		unsavedCommits.clear();
+		long previousLength = logLength + indexLength;
+		logLength = Files.size(log);
+		indexLength = Files.size(indexFile);
+		metrics.countWritten(logLength + indexLength - previousLength);
+		segments = null;
+	}
+
+	/**
+	 * Writes the objects with the given ids to a new log and index, copying
+	 * their records unchanged, and goes on with the new files. The old files
+	 * are left in place for the caller to delete once the new ones are
+	 * recorded as the current ones. Pending objects are flushed first.
+	 * Returns the number of objects dropped.
+	 */
+	public int compact(Set<String> live, Path newLog, Path newIndex) throws IOException {
+		flush();
+		if (!Files.exists(log)) {
+			log = newLog;
+			indexFile = newIndex;
+			return 0;
+		}
+		HashMap<String, Location> index = index();
+		HashMap<String, Location> compacted = new HashMap<>();
+		List<Map.Entry<String, Location>> entries = new ArrayList<>(index.entrySet());
+		entries.sort(Comparator.comparingLong(entry -> entry.getValue().offset()));
+		try (FileChannel source = FileChannel.open(log, StandardOpenOption.READ);
+				FileChannel target = FileChannel.open(newLog, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+						StandardOpenOption.TRUNCATE_EXISTING);
+				DataOutputStream indexOutput = new DataOutputStream(
+						new BufferedOutputStream(new FileOutputStream(newIndex.toFile())))) {
+			for (Map.Entry<String, Location> entry : entries) {
+				Location location = entry.getValue();
+				if (live.contains(entry.getKey())) {
+					long offset = target.position();
+					long copied = 0;
+					while (copied < location.length()) {
+						copied += source.transferTo(location.offset() + copied, location.length() - copied, target);
+					}
+					Location moved = new Location(location.type(), offset, location.length(), location.depth());
+					writeIndexEntry(indexOutput, moved.type(), entry.getKey(), offset, moved.length(), moved.depth());
+					compacted.put(entry.getKey(), moved);
+				}
+			}
+			target.force(true);
+		}
+		segments = null;
+		log = newLog;
+		indexFile = newIndex;
+		this.index = compacted;
+		sortedCommitNames = null;
+		logLength = Files.size(log);
+		indexLength = Files.size(indexFile);
+		metrics.countWritten(logLength + indexLength);
+		blobCache.clear();
+		treeCache.clear();
+		commitCache.clear();
+		return index.size() - compacted.size();
+	}
+
+	private void writeBlob(DataOutputStream logOutput, CountingOutputStream logBytes, DataOutputStream indexOutput,
+			String id, PendingBlob blob) throws IOException {
+		byte[] full = blob.data();
+		if (blob.base() != null) {
+			byte[] base = getBlob(blob.base());
+			byte[] delta = toBytes(out -> {
+				writeString(out, blob.base());
+				LineDelta.of(base, blob.data()).writeTo(out);
+			});
+			if (delta.length < full.length) {
+				writeRecord(logOutput, logBytes, indexOutput, DELTA, id, blob.depth(), delta);
+				return;
+			}
+		}
+		writeRecord(logOutput, logBytes, indexOutput, BLOB, id, 0, full);
+	}
+
+	private void writeRecord(DataOutputStream logOutput, CountingOutputStream logBytes, DataOutputStream indexOutput,
+			byte type, String id, int depth, byte[] payload) throws IOException {
+		long offset = logBytes.count();
+		byte[] record = compression.encode(payload);
+		logOutput.write(record);
+		writeIndexEntry(indexOutput, type, id, offset, record.length, depth);
+		index.put(id, new Location(type, offset, record.length, depth));
+	}
+
+	private static byte[] toBytes(RecordWriter writer) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		writer.write(new DataOutputStream(bytes));
+		return bytes.toByteArray();
+	}
+
+	private static void writeIndexEntry(DataOutput output, byte type, String id, long offset, int length, int depth)
+			throws IOException {
+		output.writeByte(type);
+		output.writeUTF(id);
+		output.writeLong(offset);
+		output.writeInt(length);
+		output.writeInt(depth);
+	}
+
+	private HashMap<String, Location> index() {
+		HashMap<String, Location> result = index;
+		if (result == null) {
+			synchronized (this) {
+				if (index == null) {
+					HashMap<String, Location> loaded = new HashMap<>();
+					if (indexLength > 0) {
+						try {
+							loadIndex(loaded);
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
+						}
+					}
+					index = loaded;
+				}
+				result = index;
+			}
+		}
+		return result;
+	}
+
+	private void loadIndex(HashMap<String, Location> index) throws IOException {
+		try (DataInputStream input = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(indexFile.toFile())))) {
+			long position = 0;
+			while (position < indexLength) {
+				byte type = input.readByte();
+				String id = input.readUTF();
+				long offset = input.readLong();
+				int length = input.readInt();
+				int depth = input.readInt();
+				position += 1 + 2 + id.length() + 8 + 4 + 4; // ids are plain hex
+				switch (type) {
+				case BLOB, COMMIT, DELTA, TREE -> index.put(id, new Location(type, offset, length, depth));
+				default -> throw new IOException("Corrupted object index: unknown entry type " + type);
+				}
+			}
+		}
+	}
+
+	private <T> T decode(Location location, RecordReader<T> reader) {
+		try {
+			ByteBuffer record = record(location);
+			metrics.countRead(location.length());
+			try (DataInputStream input = new DataInputStream(Compression.decode(record))) {
+				return reader.read(input);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Returns the bytes of a record: a view of the mapped segment holding it,
+	 * or a copy read from the log for a record crossing a segment boundary.
+	 */
+	private ByteBuffer record(Location location) throws IOException {
+		long offset = location.offset();
+		int segment = (int) (offset >>> SEGMENT_SHIFT);
+		if (location.length() == 0 || (offset + location.length() - 1) >>> SEGMENT_SHIFT == segment) {
+			return segments()[segment].slice((int) (offset & SEGMENT_MASK), location.length());
+		}
+		ByteBuffer record = ByteBuffer.allocate(location.length());
+		try (FileChannel channel = FileChannel.open(log, StandardOpenOption.READ)) {
+			while (record.hasRemaining()) {
+				if (channel.read(record, offset + record.position()) < 0) {
+					throw new EOFException("Object log ends within a record");
+				}
+			}
+		}
+		return record.flip();
+	}
+
+	/**
+	 * Maps the log in segments of 1 << SEGMENT_SHIFT bytes, since a single
+	 * mapping can't exceed 2 GiB.
+	 */
+	private MappedByteBuffer[] segments() throws IOException {
+		MappedByteBuffer[] result = segments;
+		if (result == null) {
+			synchronized (this) {
+				if (segments == null) {
+					int count = (int) ((logLength + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+					MappedByteBuffer[] mapped = new MappedByteBuffer[count];
+					try (FileChannel channel = FileChannel.open(log, StandardOpenOption.READ)) {
+						for (int i = 0; i < mapped.length; i++) {
+							long start = (long) i << SEGMENT_SHIFT;
+							mapped[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+									Math.min(logLength - start, SEGMENT_MASK + 1));
+						}
+					}
+					segments = mapped;
+				}
+				result = segments;
+			}
+		}
+		return result;
+	}
+
+	private static void truncate(Path file, long length) throws IOException {
+		if (Files.exists(file) && Files.size(file) > length) {
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+				channel.truncate(length);
+			}
+		}
+	}
+
+	static <K, V> Map<K, V> lruCache(int capacity) {
+		return Collections.synchronizedMap(new LinkedHashMap<>(capacity, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+				return size() > capacity;
+			}
+		});
+	}
+
+	/**
+	 * Returns the blob id of the content. As in git, the hashed bytes start
+	 * with a header naming the object type and length, so a blob never gets
+	 * the id of a tree with the same bytes. Commit names are hashed from
+	 * data starting with an int length, which no header starts with.
+	 */
+	public static String hash(byte[] data) {
+		MessageDigest digest = sha1();
+		digest.update(header(BLOB_HEADER, data.length));
+		digest.update(data);
+		return byteArrayToHexString(digest.digest());
+	}
+
+	/**
+	 * Hashes the file as hash(Files.readAllBytes(file)) would, streaming it
+	 * through a direct buffer instead of loading it into the heap. A file
+	 * whose length changes while it is read is hashed again.
+	 */
+	public static String hash(Path file) throws IOException {
+		MessageDigest digest = sha1();
+		ByteBuffer buffer = HASH_BUFFER.get();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			while (true) {
+				long length = channel.size();
+				long read = 0;
+				digest.reset();
+				digest.update(header(BLOB_HEADER, length));
+				channel.position(0);
+				for (int count; (count = channel.read(buffer.clear())) >= 0;) {
+					digest.update(buffer.flip());
+					read += count;
+				}
+				if (read == length) {
+					return byteArrayToHexString(digest.digest());
+				}
+			}
+		}
+	}
+
+	static byte[] header(String type, long length) {
+		return (type + " " + length + "\0").getBytes(StandardCharsets.US_ASCII);
+	}
+
+	@FunctionalInterface
+	private interface RecordWriter {
+		void write(DataOutputStream output) throws IOException;
+	}
+
+	@FunctionalInterface
+	private interface RecordReader<T> {
+		T read(DataInputStream input) throws IOException;
+	}
+}
@@ -0,0 +1,208 @@
+package git.tools;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Call counts, latency histograms and I/O counters of repository
+ * operations. The repository reports bytes read and written and files
+ * scanned as they happen; InstrumentedGitRepository times every operation and
+ * attributes to it the I/O counted while it ran. Operations running
+ * concurrently share the I/O counted during their overlap.
+ * <p>
+ * Disabled metrics cost a volatile read per counter call.
+ */
+public class RepositoryMetrics implements RepositoryMetricsMXBean {
+	public static final String OBJECT_NAME = "git.tools:type=RepositoryMetrics";
+	/** Never enabled, for components that are not instrumented. */
+	public static final RepositoryMetrics DISABLED = new RepositoryMetrics(false);
+	private static final int BUCKETS = 32;
+	private static final double NANOS_PER_MILLI = 1e6;
+
+	private volatile boolean enabled;
+	private final LongAdder bytesRead = new LongAdder();
+	private final LongAdder bytesWritten = new LongAdder();
+	private final LongAdder filesScanned = new LongAdder();
+	private final ConcurrentHashMap<String, OperationStats> operations = new ConcurrentHashMap<>();
+
+	private static class OperationStats {
+		final LongAdder calls = new LongAdder();
+		final LongAdder nanos = new LongAdder();
+		final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+		final LongAdder bytesRead = new LongAdder();
+		final LongAdder bytesWritten = new LongAdder();
+		final LongAdder filesScanned = new LongAdder();
+
+		double percentileMillis(double percentile) {
+			long count = calls.sum();
+			long seen = 0;
+			for (int bucket = 0; bucket < BUCKETS; bucket++) {
+				seen += histogram.get(bucket);
+				if (seen > 0 && seen >= count * percentile) {
+					return (1L << bucket) / 1000.0;
+				}
+			}
+			return 0;
+		}
+	}
+
+	/**
+	 * Counters at the start of an operation.
+	 */
+	public record Sample(long start, long bytesRead, long bytesWritten, long filesScanned) {
+	}
+
+	public RepositoryMetrics(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server under OBJECT_NAME.
+	 */
+	public void register() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+		} catch (JMException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	@Override
+	public void setEnabled(boolean enabled) {
+		if (this == DISABLED) {
+			throw new UnsupportedOperationException("The shared disabled metrics can't be enabled");
+		}
+		this.enabled = enabled;
+	}
+
+	public void countRead(long bytes) {
+		if (enabled) {
+			bytesRead.add(bytes);
+		}
+	}
+
+	public void countWritten(long bytes) {
+		if (enabled) {
+			bytesWritten.add(bytes);
+		}
+	}
+
+	public void countScanned(int files) {
+		if (enabled) {
+			filesScanned.add(files);
+		}
+	}
+
+	public Sample start() {
+		return new Sample(System.nanoTime(), bytesRead.sum(), bytesWritten.sum(), filesScanned.sum());
+	}
+
+	public void record(String operation, Sample sample) {
+		long nanos = System.nanoTime() - sample.start();
+		OperationStats stats = operations.computeIfAbsent(operation, name -> new OperationStats());
+		stats.calls.increment();
+		stats.nanos.add(nanos);
+		long micros = nanos / 1000;
+		stats.histogram.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros)));
+		// a reset during the operation would make the differences negative
+		stats.bytesRead.add(Math.max(0, bytesRead.sum() - sample.bytesRead()));
+		stats.bytesWritten.add(Math.max(0, bytesWritten.sum() - sample.bytesWritten()));
+		stats.filesScanned.add(Math.max(0, filesScanned.sum() - sample.filesScanned()));
+	}
+
+	@Override
+	public Map<String, Long> getCallCounts() {
+		return longs(stats -> stats.calls.sum());
+	}
+
+	@Override
+	public Map<String, Double> getMeanLatencyMillis() {
+		return doubles(stats -> stats.nanos.sum() / NANOS_PER_MILLI / Math.max(1, stats.calls.sum()));
+	}
+
+	@Override
+	public Map<String, Double> getP50LatencyMillis() {
+		return doubles(stats -> stats.percentileMillis(0.5));
+	}
+
+	@Override
+	public Map<String, Double> getP99LatencyMillis() {
+		return doubles(stats -> stats.percentileMillis(0.99));
+	}
+
+	@Override
+	public Map<String, Long> getBytesRead() {
+		return longs(stats -> stats.bytesRead.sum());
+	}
+
+	@Override
+	public Map<String, Long> getBytesWritten() {
+		return longs(stats -> stats.bytesWritten.sum());
+	}
+
+	@Override
+	public Map<String, Long> getFilesScanned() {
+		return longs(stats -> stats.filesScanned.sum());
+	}
+
+	@Override
+	public long[] latencyHistogram(String operation) {
+		OperationStats stats = operations.get(operation);
+		long[] histogram = new long[BUCKETS];
+		for (int bucket = 0; stats != null && bucket < BUCKETS; bucket++) {
+			histogram[bucket] = stats.histogram.get(bucket);
+		}
+		return histogram;
+	}
+
+	@Override
+	public List<String> report() {
+		List<String> lines = new ArrayList<>();
+		lines.add(String.format("%-22s %8s %10s %10s %10s %12s %12s %8s", "Operation", "Calls", "Mean ms", "P50 ms",
+				"P99 ms", "Read", "Written", "Scanned"));
+		new TreeMap<>(operations).forEach((operation, stats) -> lines.add(String.format(
+				"%-22s %8d %10.3f %10.3f %10.3f %12d %12d %8d", operation, stats.calls.sum(),
+				stats.nanos.sum() / NANOS_PER_MILLI / Math.max(1, stats.calls.sum()), stats.percentileMillis(0.5),
+				stats.percentileMillis(0.99), stats.bytesRead.sum(), stats.bytesWritten.sum(),
+				stats.filesScanned.sum())));
+		lines.add(String.format("Total: %d bytes read, %d bytes written, %d files scanned.", bytesRead.sum(),
+				bytesWritten.sum(), filesScanned.sum()));
+		return lines;
+	}
+
+	@Override
+	public void reset() {
+		operations.clear();
+		bytesRead.reset();
+		bytesWritten.reset();
+		filesScanned.reset();
+	}
+
+	private Map<String, Long> longs(ToLongFunction<OperationStats> value) {
+		Map<String, Long> result = new TreeMap<>();
+		operations.forEach((operation, stats) -> result.put(operation, value.applyAsLong(stats)));
+		return result;
+	}
+
+	private Map<String, Double> doubles(ToDoubleFunction<OperationStats> value) {
+		Map<String, Double> result = new TreeMap<>();
+		operations.forEach((operation, stats) -> result.put(operation, value.applyAsDouble(stats)));
+		return result;
+	}
+}
@@ -0,0 +1,34 @@
+package git.tools;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Management interface of RepositoryMetrics. Per-operation attributes are
+ * maps from the operation name (commit, info, switchTo, ...).
+ */
+public interface RepositoryMetricsMXBean {
+	boolean isEnabled();
+
+	void setEnabled(boolean enabled);
+
+	Map<String, Long> getCallCounts();
+
+	Map<String, Double> getMeanLatencyMillis();
+
+	Map<String, Double> getP50LatencyMillis();
+
+	Map<String, Double> getP99LatencyMillis();
+
+	Map<String, Long> getBytesRead();
+
+	Map<String, Long> getBytesWritten();
+
+	Map<String, Long> getFilesScanned();
+
+	long[] latencyHistogram(String operation); // calls by latency bucket, bucket i ends at 2^i microseconds
+
+	List<String> report();
+
+	void reset();
+}
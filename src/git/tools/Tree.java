@@ -0,0 +1,199 @@
+package git.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import static git.utills.ByteUtills.*;
+
+/**
+ * Directory object: sorted entries naming either a blob or a subtree. The id
+ * of a tree is the hash of its entries after a type header, so two
+ * directories with equal content have equal ids and whole subtrees can be
+ * compared by id alone.
+ */
+public class Tree {
+	public static final char SEPARATOR = '/';
+	public static final Tree EMPTY = new Tree(new TreeMap<>());
+
+	private final TreeMap<String, Entry> entries;
+	private String id;
+
+	public record Entry(String id, boolean directory) {
+	}
+
+	public record Change(String path, String oldBlob, String newBlob) {
+	}
+
+	private Tree(TreeMap<String, Entry> entries) {
+		this.entries = entries;
+	}
+
+	public String id() {
+		if (id == null) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try (DataOutputStream output = new DataOutputStream(bytes)) {
+				writeTo(output);
+			} catch (IOException e) {
+				// Unreachable code: nothing is written to a real stream
+				throw new UncheckedIOException(e);
+			}
+			MessageDigest digest = sha1();
+			digest.update(ObjectStore.header(ObjectStore.TREE_HEADER, bytes.size()));
+			digest.update(bytes.toByteArray());
+			id = byteArrayToHexString(digest.digest());
+		}
+		return id;
+	}
+
+	public Map<String, Entry> entries() {
+		return Collections.unmodifiableMap(entries);
+	}
+
+	/**
+	 * Builds the tree of the given path -> blob id map, handing every created
+	 * tree (subtrees first, the root last) to the sink.
+	 */
+	public static Tree build(SortedMap<String, String> files, Consumer<Tree> sink) {
+		return build(new ArrayList<>(files.entrySet()), 0, files.size(), 0, sink);
+	}
+
+	private static Tree build(List<Map.Entry<String, String>> files, int from, int to, int prefixLength,
+			Consumer<Tree> sink) {
+		TreeMap<String, Entry> entries = new TreeMap<>();
+		int i = from;
+		while (i < to) {
+			String path = files.get(i).getKey();
+			int separator = path.indexOf(SEPARATOR, prefixLength);
+			if (separator < 0) {
+				entries.put(path.substring(prefixLength), new Entry(files.get(i).getValue(), false));
+				i++;
+			} else {
+				String directory = path.substring(0, separator + 1);
+				int j = i + 1;
+				while (j < to && files.get(j).getKey().startsWith(directory)) {
+					j++;
+				}
+				Tree subtree = build(files, i, j, separator + 1, sink);
+				entries.put(path.substring(prefixLength, separator), new Entry(subtree.id(), true));
+				i = j;
+			}
+		}
+		Tree tree = new Tree(entries);
+		sink.accept(tree);
+		return tree;
+	}
+
+	public static void walk(Tree tree, Function<String, Tree> trees, BiConsumer<String, String> files) {
+		walk(tree, trees, "", files);
+	}
+
+	/**
+	 * Returns the blob id of the file at the path, or null if there is no such
+	 * file. Only the trees along the path are loaded.
+	 */
+	public static String lookup(Tree tree, Function<String, Tree> trees, String path) {
+		int start = 0;
+		int end;
+		while ((end = path.indexOf(SEPARATOR, start)) >= 0) {
+			Entry entry = tree.entries.get(path.substring(start, end));
+			if (entry == null || !entry.directory()) {
+				return null;
+			}
+			tree = trees.apply(entry.id());
+			start = end + 1;
+		}
+		Entry entry = tree.entries.get(path.substring(start));
+		return entry != null && !entry.directory() ? entry.id() : null;
+	}
+
+	private static void walk(Tree tree, Function<String, Tree> trees, String prefix,
+			BiConsumer<String, String> files) {
+		tree.entries.forEach((name, entry) -> {
+			if (entry.directory()) {
+				walk(trees.apply(entry.id()), trees, prefix + name + SEPARATOR, files);
+			} else {
+				files.accept(prefix + name, entry.id());
+			}
+		});
+	}
+
+	/**
+	 * Reports the files that differ between two trees. Subtrees with equal ids
+	 * on both sides are skipped without being loaded.
+	 */
+	public static void diff(Tree oldTree, Function<String, Tree> oldTrees, Tree newTree,
+			Function<String, Tree> newTrees, Consumer<Change> changes) {
+		diff(oldTree, oldTrees, newTree, newTrees, "", changes);
+	}
+
+	private static void diff(Tree oldTree, Function<String, Tree> oldTrees, Tree newTree,
+			Function<String, Tree> newTrees, String prefix, Consumer<Change> changes) {
+		TreeSet<String> names = new TreeSet<>(oldTree.entries.keySet());
+		names.addAll(newTree.entries.keySet());
+		for (String name : names) {
+			Entry oldEntry = oldTree.entries.get(name);
+			Entry newEntry = newTree.entries.get(name);
+			String path = prefix + name;
+			if (oldEntry != null && oldEntry.equals(newEntry)) {
+				continue;
+			}
+			if (oldEntry != null && newEntry != null && oldEntry.directory() && newEntry.directory()) {
+				diff(oldTrees.apply(oldEntry.id()), oldTrees, newTrees.apply(newEntry.id()), newTrees,
+						path + SEPARATOR, changes);
+				continue;
+			}
+			String newBlob = newEntry != null && !newEntry.directory() ? newEntry.id() : null;
+			if (oldEntry != null) {
+				if (oldEntry.directory()) {
+					walk(oldTrees.apply(oldEntry.id()), oldTrees, path + SEPARATOR,
+							(file, blob) -> changes.accept(new Change(file, blob, null)));
+				} else {
+					changes.accept(new Change(path, oldEntry.id(), newBlob));
+				}
+			}
+			if (newEntry != null) {
+				if (newEntry.directory()) {
+					walk(newTrees.apply(newEntry.id()), newTrees, path + SEPARATOR,
+							(file, blob) -> changes.accept(new Change(file, null, blob)));
+				} else if (oldEntry == null || oldEntry.directory()) {
+					changes.accept(new Change(path, null, newBlob));
+				}
+			}
+		}
+	}
+
+	public void writeTo(DataOutput output) throws IOException {
+		output.writeInt(entries.size());
+		for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+			writeString(output, entry.getKey());
+			output.writeBoolean(entry.getValue().directory());
+			writeString(output, entry.getValue().id());
+		}
+	}
+
+	public static Tree readFrom(DataInput input) throws IOException {
+		int size = input.readInt();
+		TreeMap<String, Entry> entries = new TreeMap<>();
+		for (int i = 0; i < size; i++) {
+			String name = readString(input);
+			boolean directory = input.readBoolean();
+			entries.put(name, new Entry(readString(input), directory));
+		}
+		return new Tree(entries);
+	}
+}
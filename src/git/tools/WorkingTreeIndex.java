@@ -0,0 +1,126 @@
+package git.tools;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static git.utills.ByteUtills.*;
+
+/**
+ * Stat cache of the working directory: for every file the size, modification
+ * time and file key seen when its content was last hashed. A file is re-read
+ * only when one of them changes. Files modified shortly before being hashed
+ * are not cached, since a later write within the timestamp granularity would
+ * be invisible to the stat comparison.
+ */
+public class WorkingTreeIndex {
+	private static final long RACY_INTERVAL_MILLIS = 2000;
+	private static final String TMP_SUFFIX = ".tmp";
+
+	private final Path file;
+	private volatile ConcurrentHashMap<String, Entry> entries;
+	private volatile boolean changed;
+	private RepositoryMetrics metrics = RepositoryMetrics.DISABLED;
+
+	private record Entry(long size, long lastModified, String fileKey, String blob) {
+
+		boolean matches(BasicFileAttributes attributes) {
+			return size == attributes.size() && lastModified == attributes.lastModifiedTime().toMillis()
+					&& fileKey.equals(WorkingTreeIndex.fileKey(attributes));
+		}
+	}
+
+	public WorkingTreeIndex(Path file) {
+		this.file = file;
+	}
+
+	public void setMetrics(RepositoryMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public String hash(String name) throws IOException {
+		Path path = Path.of(name);
+		BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		ConcurrentHashMap<String, Entry> entries = entries();
+		Entry entry = entries.get(name);
+		if (entry != null && entry.matches(attributes)) {
+			return entry.blob();
+		}
+		String blob = ObjectStore.hash(path);
+		metrics.countRead(attributes.size());
+		long lastModified = attributes.lastModifiedTime().toMillis();
+		if (lastModified + RACY_INTERVAL_MILLIS < System.currentTimeMillis()) {
+			entries.put(name, new Entry(attributes.size(), lastModified, fileKey(attributes), blob));
+		} else {
+			entries.remove(name);
+		}
+		changed = true;
+		return blob;
+	}
+
+	public void retainAll(Collection<String> names) {
+		changed |= entries().keySet().retainAll(new HashSet<>(names));
+	}
+
+	public synchronized void save() throws IOException {
+		if (!changed) {
+			return;
+		}
+		Path tmp = Path.of(file + TMP_SUFFIX);
+		try (DataOutputStream output = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(tmp.toFile())))) {
+			output.writeInt(entries.size());
+			for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+				writeString(output, entry.getKey());
+				output.writeLong(entry.getValue().size());
+				output.writeLong(entry.getValue().lastModified());
+				writeString(output, entry.getValue().fileKey());
+				writeString(output, entry.getValue().blob());
+			}
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		changed = false;
+	}
+
+	private ConcurrentHashMap<String, Entry> entries() {
+		if (entries == null) {
+			synchronized (this) {
+				if (entries == null) {
+					ConcurrentHashMap<String, Entry> loaded = new ConcurrentHashMap<>();
+					if (Files.exists(file)) {
+						try {
+							load(loaded);
+						} catch (IOException e) {
+							// a damaged stat cache only costs re-hashing
+							loaded.clear();
+						}
+					}
+					entries = loaded;
+				}
+			}
+		}
+		return entries;
+	}
+
+	private void load(Map<String, Entry> entries) throws IOException {
+		try (DataInputStream input = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(file.toFile())))) {
+			int size = input.readInt();
+			for (int i = 0; i < size; i++) {
+				entries.put(readString(input),
+						new Entry(input.readLong(), input.readLong(), readString(input), readString(input)));
+			}
+		}
+	}
+
+	private static String fileKey(BasicFileAttributes attributes) {
+		Object key = attributes.fileKey();
+		return key != null ? key.toString() : "";
+	}
+}
@@ -0,0 +1,147 @@
+package git.tools;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches every non-ignored directory of the working tree. The operating
+ * system queues the events in the background; poll() drains them and returns
+ * the paths that may have changed since the previous poll, sync() also waits
+ * for the events of the changes made just before it. When events were lost
+ * the result is marked as overflowed and the caller has to rescan.
+ */
+public class WorkingTreeWatcher implements Closeable {
+	private static final String COOKIE_PREFIX = GitRepository.GIT_FILE + ".cookie.";
+	private static final long COOKIE_TIMEOUT_MILLIS = 1000;
+
+	private final Path root;
+	private final Predicate<Path> ignoredDirectory;
+	private final WatchService service;
+	private final HashMap<WatchKey, Path> directories = new HashMap<>();
+	private long cookies;
+
+	public record Changes(boolean overflow, Set<Path> paths) {
+	}
+
+	public WorkingTreeWatcher(Path root, Predicate<Path> ignoredDirectory) throws IOException {
+		this.root = root;
+		this.ignoredDirectory = ignoredDirectory;
+		service = root.getFileSystem().newWatchService();
+		register(root);
+	}
+
+	public synchronized Changes poll() {
+		Batch batch = new Batch(null);
+		WatchKey key;
+		while ((key = service.poll()) != null) {
+			take(key, batch);
+		}
+		return batch.changes();
+	}
+
+	/**
+	 * Returns the changes made before the call, as poll() may not: events are
+	 * delivered some time after the change. As git's fsmonitor does, a cookie
+	 * file is created in the root and events are drained until the one of the
+	 * cookie arrives, since the events of earlier changes are queued before
+	 * it. If it doesn't arrive in time the result is marked as overflowed.
+	 */
+	public synchronized Changes sync() {
+		Path cookie = root.resolve(COOKIE_PREFIX + ProcessHandle.current().pid() + "." + ++cookies);
+		Batch batch = new Batch(cookie.getFileName());
+		try {
+			Files.createFile(cookie);
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(COOKIE_TIMEOUT_MILLIS);
+			while (!batch.cookieSeen) {
+				WatchKey key = service.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+				if (key == null) {
+					batch.overflow = true;
+					break;
+				}
+				take(key, batch);
+			}
+			// a key is queued when its first event arrives, so keys with earlier events may wait behind the cookie's
+			WatchKey key;
+			while ((key = service.poll()) != null) {
+				take(key, batch);
+			}
+			Files.delete(cookie);
+		} catch (IOException e) {
+			batch.overflow = true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			batch.overflow = true;
+		}
+		return batch.changes();
+	}
+
+	private void take(WatchKey key, Batch batch) {
+		Path dir = directories.get(key);
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == OVERFLOW || dir == null) {
+				batch.overflow = true;
+				continue;
+			}
+			Path child = dir.resolve((Path) event.context());
+			if (dir.equals(root) && GitRepositoryImpl.isRepositoryFile(child.getFileName().toString())) {
+				// the repository's own files, the cookies among them, are not part of the working tree
+				batch.cookieSeen |= event.kind() == ENTRY_CREATE && child.getFileName().equals(batch.cookie);
+				continue;
+			}
+			batch.paths.add(root.relativize(child));
+			if (event.kind() == ENTRY_CREATE && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+				try {
+					register(child);
+				} catch (IOException e) {
+					batch.overflow = true;
+				}
+			}
+		}
+		if (!key.reset()) {
+			directories.remove(key);
+		}
+	}
+
+	private void register(Path start) throws IOException {
+		Files.walkFileTree(start, new SimpleFileVisitor<>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				if (!dir.equals(root) && ignoredDirectory.test(root.relativize(dir))) {
+					return FileVisitResult.SKIP_SUBTREE;
+				}
+				directories.put(dir.register(service, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private static class Batch {
+		private final Path cookie;
+		private final Set<Path> paths = new HashSet<>();
+		private boolean overflow;
+		private boolean cookieSeen;
+
+		private Batch(Path cookie) {
+			this.cookie = cookie;
+		}
+
+		private Changes changes() {
+			return new Changes(overflow, paths);
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		directories.clear();
+		service.close();
+	}
+}
@@ -0,0 +1,39 @@
+package git.tools.legacy;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.util.Map;
+
+/**
+ * A commit of a serialized repository, holding the whole content of its
+ * files.
+ */
+public class Commit implements Serializable {
+	private static final long serialVersionUID = 4863127995743013980L;
+
+	private String name;
+	private String message;
+	private String prevCommit;
+	private Map<String, File> files;
+	private LocalDateTime date;
+
+	public String getName() {
+		return name;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public String getPrevCommit() {
+		return prevCommit;
+	}
+
+	public Map<String, File> getFiles() {
+		return files;
+	}
+
+	public LocalDateTime getDate() {
+		return date;
+	}
+}
@@ -1,8 +1,11 @@
-package git.tools;
+package git.tools.legacy;
 
 import java.io.Serializable;
 import java.time.Instant;
 
+/**
+ * A file of a serialized repository: its lines as Files.readAllLines read
+ * them.
+ */
 public record File(String[] data, Instant lastModified) implements Serializable {
-
 }
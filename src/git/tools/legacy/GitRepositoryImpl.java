@@ -0,0 +1,83 @@
+package git.tools.legacy;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamConstants;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A repository as the first version saved it: the whole object graph
+ * serialized into .mygit. It is only read, to convert such a repository to
+ * the object log. The stream names the classes the graph was written with by
+ * their fully qualified names, which read() maps from git.tools to the
+ * classes of the same simple names in this package. The stand-ins are
+ * accepted as long as their fields and serialVersionUIDs match, since the
+ * stream class is only checked against the simple name of the local one.
+ */
+public class GitRepositoryImpl implements Serializable {
+	private static final long serialVersionUID = -1294812L;
+	private static final Map<String, Class<?>> LEGACY_CLASSES = Map.of("git.tools.GitRepositoryImpl",
+			GitRepositoryImpl.class, "git.tools.Commit", Commit.class, "git.tools.File", File.class);
+
+	private String head;
+	private HashMap<String, String> branches;
+	private HashMap<String, Commit> commits;
+	private HashSet<String> ignoredExps;
+
+	/**
+	 * Tells a serialized repository by the stream header it starts with.
+	 */
+	public static boolean isLegacy(Path file) throws IOException {
+		if (!Files.isRegularFile(file) || Files.size(file) < 4) {
+			return false;
+		}
+		try (DataInputStream input = new DataInputStream(Files.newInputStream(file))) {
+			return input.readShort() == ObjectStreamConstants.STREAM_MAGIC
+					&& input.readShort() == ObjectStreamConstants.STREAM_VERSION;
+		}
+	}
+
+	public static GitRepositoryImpl read(Path file) throws IOException {
+		try (InputStream stream = new BufferedInputStream(Files.newInputStream(file));
+				ObjectInputStream input = new ObjectInputStream(stream) {
+					@Override
+					protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+						Class<?> legacyClass = LEGACY_CLASSES.get(desc.getName());
+						return legacyClass != null ? legacyClass : super.resolveClass(desc);
+					}
+				}) {
+			return (GitRepositoryImpl) input.readObject();
+		} catch (ClassNotFoundException | ClassCastException e) {
+			throw new IOException(String.format("Unable to read the serialized repository %s", file), e);
+		}
+	}
+
+	public String head() {
+		return head;
+	}
+
+	public Map<String, String> branches() {
+		return branches;
+	}
+
+	/**
+	 * Returns the commits by their names shortened to 7 characters.
+	 */
+	public Map<String, Commit> commits() {
+		return commits;
+	}
+
+	public Set<String> ignoredExps() {
+		return ignoredExps;
+	}
+}
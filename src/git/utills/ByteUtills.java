@@ -1,12 +1,32 @@
 package git.utills;
 
-import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
-import java.io.Serializable;
-import java.util.Arrays;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 public class ByteUtills {
+	private static final int NULL_LENGTH = -1;
+	private static final String ALGORITHM = "SHA-1";
+	private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+		try {
+			return MessageDigest.getInstance(ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			// Unreachable code: every JVM has to provide SHA-1
+			throw new IllegalStateException(e);
+		}
+	});
+
+	/**
+	 * Returns the calling thread's reset SHA-1 digest.
+	 */
+	public static MessageDigest sha1() {
+		MessageDigest digest = DIGEST.get();
+		digest.reset();
+		return digest;
+	}
 
 	public static String byteArrayToHexString(byte[] bytes) {
 		StringBuilder result = new StringBuilder();
@@ -16,11 +36,23 @@ public class ByteUtills {
 		return result.toString();
 	}
 
-	public static byte[] toBytesArray(Serializable obj) throws IOException {
-		try (ByteArrayOutputStream bytesOutput = new ByteArrayOutputStream();
-				ObjectOutputStream objectOutput = new ObjectOutputStream(bytesOutput)) {
-			objectOutput.writeObject(obj);
-			return bytesOutput.toByteArray();
+	public static void writeString(DataOutput output, String str) throws IOException {
+		if (str == null) {
+			output.writeInt(NULL_LENGTH);
+		} else {
+			byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+			output.writeInt(bytes.length);
+			output.write(bytes);
+		}
+	}
+
+	public static String readString(DataInput input) throws IOException {
+		int length = input.readInt();
+		if (length == NULL_LENGTH) {
+			return null;
 		}
+		byte[] bytes = new byte[length];
+		input.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
 	}
 }
@@ -0,0 +1,30 @@
+package git.utills;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+public class CountingOutputStream extends FilterOutputStream {
+	private long count;
+
+	public CountingOutputStream(OutputStream out, long initialCount) {
+		super(out);
+		count = initialCount;
+	}
+
+	public long count() {
+		return count;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		out.write(b);
+		count++;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		out.write(b, off, len);
+		count += len;
+	}
+}
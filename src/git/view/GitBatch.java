@@ -0,0 +1,301 @@
+package git.view;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import git.tools.BlameLine;
+import git.tools.CommitMessage;
+import git.tools.FileDiff;
+import git.tools.FileState;
+import git.tools.GitRepository;
+import git.tools.LogQuery;
+
+/**
+ * Non-interactive front-end: runs commands one after another against one
+ * repository and saves it once at the end. Commands use a shell-like syntax
+ * (arguments separated by spaces, quotes group words, '#' starts a comment,
+ * backslash escapes except within single quotes):
+ *
+ * <pre>
+ * commit -m "message"        info                 log [options]
+ * switch name                branch name          branch -m name newName
+ * branch -d name             branches             head
+ * content name               ignore expression    gc
+ * merge name                 merge --abort        diff from [to]
+ * blame file [name]
+ * </pre>
+ *
+ * log takes -n count, --skip count, --since date, --until date (inclusive,
+ * ISO dates or date-times) and --grep regex. diff compares with the working
+ * directory when there is no second name, blame annotates the file at the
+ * head when there is no name.
+ * <p>
+ * Every command prints one JSON object on a line of its own, with the
+ * command, "ok" or "error" as the status and the result. Operations the
+ * repository refuses (switching with uncommited files, committing with no
+ * branch, merging while a merge is in progress...) and merges left with
+ * conflicts are errors. Running stops at the first error; a failure to save
+ * the repository is reported as an error of a "save" command.
+ */
+public class GitBatch {
+	/**
+	 * Starts of the messages the repository answers with when it refuses an
+	 * operation or leaves it unfinished.
+	 */
+	private static final List<String> FAILURES = List.of("Unable to", "Nothing to commit", "A merge is in progress",
+			"There are uncommited files", "Automatic merge failed", "No merge is in progress",
+			"Invalid regular expression");
+
+	private final GitRepository git;
+	private final PrintStream output;
+
+	public GitBatch(GitRepository git, PrintStream output) {
+		this.git = git;
+		this.output = output;
+	}
+
+	/**
+	 * Runs the commands of a script, one per line, and returns true if all of
+	 * them succeeded.
+	 */
+	public boolean run(BufferedReader script) throws IOException {
+		List<List<String>> commands = new ArrayList<>();
+		String line;
+		while ((line = script.readLine()) != null) {
+			List<String> words = split(line);
+			if (!words.isEmpty()) {
+				commands.add(words);
+			}
+		}
+		return run(commands);
+	}
+
+	/**
+	 * Runs commands given as arguments, separated by ";" arguments.
+	 */
+	public boolean run(String[] args) {
+		List<List<String>> commands = new ArrayList<>();
+		List<String> command = new ArrayList<>();
+		for (String arg : args) {
+			if (arg.equals(";")) {
+				commands.add(command);
+				command = new ArrayList<>();
+			} else {
+				command.add(arg);
+			}
+		}
+		commands.add(command);
+		commands.removeIf(List::isEmpty);
+		return run(commands);
+	}
+
+	private boolean run(List<List<String>> commands) {
+		boolean succeeded = true;
+		for (List<String> command : commands) {
+			try {
+				output.println(result(command.get(0), "ok", execute(command)));
+			} catch (RuntimeException e) {
+				output.println(result(command.get(0), "error", json(String.valueOf(e.getMessage()))));
+				succeeded = false;
+				break;
+			}
+		}
+		try {
+			git.save();
+		} catch (RuntimeException e) {
+			output.println(result("save", "error", json(String.valueOf(e.getMessage()))));
+			succeeded = false;
+		}
+		return succeeded;
+	}
+
+	private String execute(List<String> command) {
+		Iterator<String> args = command.subList(1, command.size()).iterator();
+		String result = switch (command.get(0)) {
+		case "commit" -> message(git.commit(option(args, "-m")));
+		case "info" -> json(git.info(), GitBatch::json);
+		case "log" -> json(git.log(logQuery(args)).toList(), GitBatch::json);
+		case "switch", "switchTo" -> message(git.switchTo(argument(args, "name")));
+		case "branch" -> {
+			String first = argument(args, "name");
+			yield switch (first) {
+			case "-m" -> message(git.renameBranch(argument(args, "name"), argument(args, "new name")));
+			case "-d" -> message(git.deleteBranch(argument(args, "name")));
+			default -> message(git.createBranch(first));
+			};
+		}
+		case "branches" -> json(git.branches(), GitBatch::json);
+		case "head" -> json(git.getHead());
+		case "content" -> json(git.commitContent(argument(args, "name")), path -> json(path.toString()));
+		case "ignore" -> message(git.addIgnoredFileNameExp(argument(args, "expression")));
+		case "gc" -> json(git.gc());
+		case "merge" -> {
+			String name = argument(args, "name");
+			yield message(name.equals("--abort") ? git.abortMerge() : git.merge(name));
+		}
+		case "diff" -> json(git.diff(argument(args, "name"), args.hasNext() ? args.next() : null), GitBatch::json);
+		case "blame" -> json(git.blame(argument(args, "file"), args.hasNext() ? args.next() : null), GitBatch::json);
+		default -> throw new IllegalArgumentException("Unknown command: " + command.get(0));
+		};
+		if (args.hasNext()) {
+			throw new IllegalArgumentException("Unexpected argument: " + args.next());
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the message of an operation as JSON, or throws it if the
+	 * repository refused the operation.
+	 */
+	private static String message(String message) {
+		if (FAILURES.stream().anyMatch(message::startsWith) || message.endsWith("'s already exists.")) {
+			throw new IllegalStateException(message);
+		}
+		return json(message);
+	}
+
+	private static LogQuery logQuery(Iterator<String> args) {
+		LogQuery query = LogQuery.ALL;
+		while (args.hasNext()) {
+			String option = args.next();
+			String value = argument(args, option + " value");
+			query = switch (option) {
+			case "-n" -> query.limit(Long.parseLong(value));
+			case "--skip" -> query.skip(Long.parseLong(value));
+			case "--since" -> query.since(dateTime(value, false));
+			case "--until" -> query.until(dateTime(value, true));
+			case "--grep" -> query.grep(value);
+			default -> throw new IllegalArgumentException("Unknown log option: " + option);
+			};
+		}
+		return query;
+	}
+
+	/**
+	 * Parses a date-time, or a date meaning its start or, for the end of a
+	 * range, the start of the next day.
+	 */
+	private static LocalDateTime dateTime(String value, boolean end) {
+		if (value.contains("T")) {
+			return LocalDateTime.parse(value);
+		}
+		LocalDate date = LocalDate.parse(value);
+		return (end ? date.plusDays(1) : date).atStartOfDay();
+	}
+
+	private static String argument(Iterator<String> args, String name) {
+		if (!args.hasNext()) {
+			throw new IllegalArgumentException("Missing " + name);
+		}
+		return args.next();
+	}
+
+	private static String option(Iterator<String> args, String option) {
+		String first = argument(args, option + " value");
+		return first.equals(option) ? argument(args, option + " value") : first;
+	}
+
+	/**
+	 * Splits a line into words: quotes group words, a backslash escapes the
+	 * next character except inside single quotes, '#' outside quotes starts a
+	 * comment.
+	 */
+	static List<String> split(String line) {
+		List<String> words = new ArrayList<>();
+		StringBuilder word = null;
+		char quote = 0;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c == '\\' && quote != '\'' && i + 1 < line.length()) {
+				word = word == null ? new StringBuilder() : word;
+				word.append(line.charAt(++i));
+			} else if (quote != 0) {
+				if (c == quote) {
+					quote = 0;
+				} else {
+					word.append(c);
+				}
+			} else if (c == '"' || c == '\'') {
+				quote = c;
+				word = word == null ? new StringBuilder() : word;
+			} else if (c == '#' && word == null) {
+				break;
+			} else if (Character.isWhitespace(c)) {
+				if (word != null) {
+					words.add(word.toString());
+					word = null;
+				}
+			} else {
+				word = word == null ? new StringBuilder() : word;
+				word.append(c);
+			}
+		}
+		if (quote != 0) {
+			throw new IllegalArgumentException("Unclosed quote: " + line);
+		}
+		if (word != null) {
+			words.add(word.toString());
+		}
+		return words;
+	}
+
+	private static String result(String command, String status, String result) {
+		return String.format("{\"command\":%s,\"status\":\"%s\",\"result\":%s}", json(command), status, result);
+	}
+
+	private static String json(FileState file) {
+		return String.format("{\"name\":%s,\"status\":\"%s\"}", json(file.name()), file.status());
+	}
+
+	private static String json(CommitMessage commit) {
+		return String.format("{\"name\":%s,\"message\":%s,\"date\":\"%s\"}", json(commit.name()),
+				json(commit.message()), commit.date());
+	}
+
+	private static String json(FileDiff diff) {
+		return String.format("{\"path\":%s,\"binary\":%b,\"insertions\":%d,\"deletions\":%d,\"patch\":%s}",
+				json(diff.path()), diff.binary(), diff.insertions(), diff.deletions(),
+				json(String.join("\n", diff.patch())));
+	}
+
+	private static String json(BlameLine line) {
+		return String.format("{\"line\":%d,\"commit\":%s,\"date\":\"%s\",\"text\":%s}", line.number(),
+				json(line.commit()), line.date(), json(line.text()));
+	}
+
+	private static <T> String json(List<T> values, Function<T, String> mapper) {
+		return values.stream().map(mapper).collect(Collectors.joining(",", "[", "]"));
+	}
+
+	private static String json(String str) {
+		if (str == null) {
+			return "null";
+		}
+		StringBuilder builder = new StringBuilder("\"");
+		for (char c : str.toCharArray()) {
+			switch (c) {
+			case '"' -> builder.append("\\\"");
+			case '\\' -> builder.append("\\\\");
+			case '\n' -> builder.append("\\n");
+			case '\r' -> builder.append("\\r");
+			case '\t' -> builder.append("\\t");
+			default -> {
+				if (c < ' ') {
+					builder.append(String.format("\\u%04x", (int) c));
+				} else {
+					builder.append(c);
+				}
+			}
+			}
+		}
+		return builder.append('"').toString();
+	}
+}
@@ -1,30 +1,73 @@
 package git.view;
 
 import java.nio.file.Path;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 import git.tools.CommitMessage;
+import git.tools.FileDiff;
 import git.tools.FileState;
 import git.tools.GitRepository;
+import git.tools.LogQuery;
+import git.tools.RepositoryMetrics;
 
 public class GitController {
 	private static final String MENU_NAME = "Git menu";
+	private static final int PAGE_SIZE = 20;
 	private GitRepository git;
+	private RepositoryMetrics metrics;
 
 	public GitController(GitRepository git) {
 		this.git = git;
 	}
 
+	public GitController(GitRepository git, RepositoryMetrics metrics) {
+		this(git);
+		this.metrics = metrics;
+	}
+
 	public Menu getMenu() {
 		return new Menu(MENU_NAME, Item.of("Commit", this::commit), Item.of("Info", this::info),
 				Item.of("Create a branch", this::createBranch), Item.of("Rename a branch", this::renameBranch),
 				Item.of("Delete a branch", this::deleteBranch), Item.of("Log", this::log),
 				Item.of("Branches", this::branches), Item.of("Commit content", this::commitContent),
-				Item.of("SwitchTo", this::switchTo), Item.of("Get head", this::getHead),
+				Item.of("SwitchTo", this::switchTo), Item.of("Merge", this::merge),
+				Item.of("Abort the merge", io -> io.writeLine(git.abortMerge())), Item.of("Diff", this::diff),
+				Item.of("Blame", this::blame), Item.of("Get head", this::getHead),
 				Item.of("Add an ignored filename expression", this::addIgnoredFileNameExp),
+				Item.of("Garbage collection", io -> io.writeLine(git.gc())), Item.of("Stats", this::stats),
 				Item.of("Exit", (io) -> git.save(), true));
 	}
 
+	/**
+	 * Returns the operations of the menu by command name, for front-ends that
+	 * take commands instead of menu item numbers.
+	 */
+	public Map<String, Consumer<InputOutput>> getCommands() {
+		Map<String, Consumer<InputOutput>> commands = new LinkedHashMap<>();
+		commands.put("commit", this::commit);
+		commands.put("info", this::info);
+		commands.put("createBranch", this::createBranch);
+		commands.put("renameBranch", this::renameBranch);
+		commands.put("deleteBranch", this::deleteBranch);
+		commands.put("log", this::logPage);
+		commands.put("branches", this::branches);
+		commands.put("commitContent", this::commitContent);
+		commands.put("switchTo", this::switchTo);
+		commands.put("merge", this::merge);
+		commands.put("abortMerge", io -> io.writeLine(git.abortMerge()));
+		commands.put("diff", this::diff);
+		commands.put("blame", this::blame);
+		commands.put("getHead", this::getHead);
+		commands.put("addIgnoredFileNameExp", this::addIgnoredFileNameExp);
+		commands.put("gc", io -> io.writeLine(git.gc()));
+		commands.put("stats", this::stats);
+		commands.put("save", io -> git.save());
+		return commands;
+	}
+
 	private void commit(InputOutput io) {
 		String msg = io.readString("Enter a commit message:");
 		io.writeLine(git.commit(msg));
@@ -57,12 +100,34 @@ public class GitController {
 	}
 
 	private void log(InputOutput io) {
-		List<CommitMessage> commitMsg = git.log();
-		if (!commitMsg.isEmpty()) {
+		int skip = 0;
+		boolean more = true;
+		while (more) {
+			// one commit past the page tells whether there is a next one
+			List<CommitMessage> page = git.log(LogQuery.ALL.skip(skip).limit(PAGE_SIZE + 1)).toList();
+			if (skip == 0) {
+				io.writeLine(page.isEmpty() ? "No commits yet." : "Commits:");
+			}
+			page.stream().limit(PAGE_SIZE).forEach(io::writeLine);
+			skip += PAGE_SIZE;
+			more = page.size() > PAGE_SIZE
+					&& io.readString("Press Enter for more commits, anything else to stop:").isEmpty();
+		}
+	}
+
+	/**
+	 * Log for front-ends without prompts: the arguments are the number of
+	 * commits to skip and to show.
+	 */
+	private void logPage(InputOutput io) {
+		long skip = Long.parseLong(io.readString("Enter the number of commits to skip:"));
+		long count = Long.parseLong(io.readString("Enter the number of commits to show:"));
+		List<CommitMessage> page = git.log(LogQuery.ALL.skip(skip).limit(count)).toList();
+		if (!page.isEmpty()) {
 			io.writeLine("Commits:");
-			commitMsg.forEach(io::writeLine);
+			page.forEach(io::writeLine);
 		} else {
-			io.writeLine("No commits yet.");
+			io.writeLine("No commits.");
 		}
 	}
 
@@ -78,7 +143,13 @@ public class GitController {
 
 	private void commitContent(InputOutput io) {
 		String commitName = io.readString("Enter a name of branch/commit:");
-		List<Path> files = git.commitContent(commitName);
+		List<Path> files;
+		try {
+			files = git.commitContent(commitName);
+		} catch (IllegalArgumentException e) {
+			io.writeLine(e.getMessage());
+			return;
+		}
 		if (!files.isEmpty()) {
 			io.writeLine("Files in the branch/commit:");
 			files.forEach(io::writeLine);
@@ -92,11 +163,54 @@ public class GitController {
 		io.writeLine(git.switchTo(commitName));
 	}
 
+	private void merge(InputOutput io) {
+		String name = io.readString("Enter a name of branch/commit to merge into the head branch:");
+		io.writeLine(git.merge(name));
+	}
+
+	private void diff(InputOutput io) {
+		String from = io.readString("Enter a name of branch/commit to compare from:");
+		String to = io.readString("Enter a name of branch/commit to compare to (empty for the working directory):");
+		List<FileDiff> diffs;
+		try {
+			diffs = git.diff(from, to.isEmpty() ? null : to);
+		} catch (IllegalArgumentException e) {
+			io.writeLine(e.getMessage());
+			return;
+		}
+		if (diffs.isEmpty()) {
+			io.writeLine("No differences.");
+			return;
+		}
+		diffs.forEach(io::writeLine);
+		io.writeLine(String.format("%d files changed, %d insertions(+), %d deletions(-)", diffs.size(),
+				diffs.stream().mapToInt(FileDiff::insertions).sum(), diffs.stream().mapToInt(FileDiff::deletions).sum()));
+		diffs.forEach(diff -> diff.patch().forEach(io::writeLine));
+	}
+
+	private void blame(InputOutput io) {
+		String path = io.readString("Enter a file name:");
+		String name = io.readString("Enter a name of branch/commit (empty for the head):");
+		try {
+			git.blame(path, name.isEmpty() ? null : name).forEach(io::writeLine);
+		} catch (IllegalArgumentException e) {
+			io.writeLine(e.getMessage());
+		}
+	}
+
 	private void getHead(InputOutput io) {
 		String head = git.getHead();
 		io.writeLine(head != null ? head : "Head's on commit");
 	}
 
+	private void stats(InputOutput io) {
+		if (metrics == null || !metrics.isEnabled()) {
+			io.writeLine("Metrics are disabled.");
+		} else {
+			metrics.report().forEach(io::writeLine);
+		}
+	}
+
 	private void addIgnoredFileNameExp(InputOutput io) {
 		String regex = io.readString("Enter an expression:");
 		io.writeLine(git.addIgnoredFileNameExp(regex));
@@ -0,0 +1,92 @@
+package git.view;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Local TCP server of the GitController commands (see
+ * GitController.getCommands()) over the line protocol of SocketInputOutput.
+ * A client keeps its connection open and sends any number of requests, e.g.
+ * "info" or "commit\tmessage"; "quit" closes the connection.
+ * <p>
+ * Every connection is served by a thread of its own. The commands run
+ * concurrently, so the repository behind them has to be thread-safe.
+ */
+public class GitServer implements Closeable {
+	public static final String QUIT_COMMAND = "quit";
+	private static final int BACKLOG = 128;
+
+	private final ServerSocket serverSocket;
+	private final Map<String, Consumer<InputOutput>> commands;
+	private final ExecutorService connections = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "git-connection");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * Listens on the loopback address, port 0 picks a free port.
+	 */
+	public GitServer(int port, Map<String, Consumer<InputOutput>> commands) throws IOException {
+		this.serverSocket = new ServerSocket(port, BACKLOG, InetAddress.getLoopbackAddress());
+		this.commands = commands;
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Accepts connections until the server is closed.
+	 */
+	public void serve() {
+		try {
+			while (true) {
+				Socket socket = serverSocket.accept();
+				connections.execute(() -> handle(socket));
+			}
+		} catch (SocketException e) {
+			// the server socket has been closed
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void handle(Socket socket) {
+		try (socket; SocketInputOutput io = new SocketInputOutput(socket)) {
+			socket.setTcpNoDelay(true);
+			String command;
+			while ((command = io.readRequest()) != null && !command.equals(QUIT_COMMAND)) {
+				Consumer<InputOutput> handler = commands.get(command);
+				if (handler == null) {
+					io.writeLine(String.format("Unknown command \"%s\", known commands are %s.", command,
+							commands.keySet()));
+				} else {
+					try {
+						handler.accept(io);
+					} catch (RuntimeException e) {
+						io.writeLine("Error: " + e.getMessage());
+					}
+				}
+				io.endResponse();
+			}
+		} catch (IOException | UncheckedIOException e) {
+			// the client has gone, nothing to answer
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		serverSocket.close();
+		connections.shutdownNow();
+	}
+}
@@ -0,0 +1,97 @@
+package git.view;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * InputOutput of one connection of the line protocol served by GitServer. A
+ * request is a line with the command and its arguments separated by tabs;
+ * readString() hands out the arguments in order instead of prompting. The
+ * output of a request is sent as one response ending with a line holding a
+ * single "."; response lines starting with "." get one more.
+ */
+public class SocketInputOutput implements InputOutput, Closeable {
+	public static final String ARGUMENT_SEPARATOR = "\t";
+	public static final String END_OF_RESPONSE = ".";
+
+	private final BufferedReader reader;
+	private final BufferedWriter writer;
+	private final ArrayDeque<String> arguments = new ArrayDeque<>();
+	private final StringBuilder response = new StringBuilder();
+
+	public SocketInputOutput(Socket socket) throws IOException {
+		reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+		writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Reads the next request and returns its command, or null when the client
+	 * has closed the connection.
+	 */
+	public String readRequest() throws IOException {
+		String line = reader.readLine();
+		if (line == null) {
+			return null;
+		}
+		String[] parts = line.split(ARGUMENT_SEPARATOR, -1);
+		arguments.clear();
+		arguments.addAll(Arrays.asList(parts).subList(1, parts.length));
+		return parts[0].trim();
+	}
+
+	@Override
+	public String readString(String prompt) {
+		if (arguments.isEmpty()) {
+			throw new NoSuchElementException("Missing argument: " + prompt);
+		}
+		return arguments.poll();
+	}
+
+	@Override
+	public void writeString(Object obj) {
+		response.append(obj);
+	}
+
+	/**
+	 * Sends everything written since the previous response.
+	 */
+	public void endResponse() {
+		try {
+			if (response.length() > 0 && response.charAt(response.length() - 1) != '\n') {
+				response.append('\n');
+			}
+			int start = 0;
+			while (start < response.length()) {
+				int end = response.indexOf("\n", start);
+				if (response.charAt(start) == END_OF_RESPONSE.charAt(0)) {
+					writer.write(END_OF_RESPONSE);
+				}
+				writer.append(response, start, end);
+				writer.newLine();
+				start = end + 1;
+			}
+			writer.write(END_OF_RESPONSE);
+			writer.newLine();
+			writer.flush();
+			response.setLength(0);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+		writer.close();
+	}
+}